@@ -0,0 +1,79 @@
+package io.ebean.metrics.collectd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding (and signing or encrypting) a datagram of value lists.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacketWriterBenchmark {
+
+  private static final int METRICS = 10;
+
+  @Param({"NONE", "SIGN", "ENCRYPT"})
+  public SecurityLevel securityLevel;
+
+  private PacketWriter writer;
+  private MetaData metaData;
+  private MetaData[] metricParts;
+  private PacketTemplate[] templates;
+  private final double[] values = {42, 1200, 350, 14700};
+
+  @Setup
+  public void setup() {
+    writer = new PacketWriter(new NoopSender(), "user0", "secret", securityLevel);
+    metaData = new MetaData("app-1.example.com", 1520961345L, 60);
+    metricParts = new MetaData[METRICS];
+    templates = new PacketTemplate[METRICS];
+    String[] typeInstances = {"count", "max", "mean", "total"};
+    DataSourceType[][] types = {{DataSourceType.GAUGE}, {DataSourceType.GAUGE}, {DataSourceType.GAUGE}, {DataSourceType.GAUGE}};
+    for (int i = 0; i < METRICS; i++) {
+      String plugin = "orm.Customer.findList" + i;
+      metricParts[i] = new MetaData("app-1.example.com", 1520961345L, 60).plugin(plugin);
+      templates[i] = PacketTemplate.compile(plugin, null, "gauge", typeInstances, types);
+    }
+  }
+
+  /**
+   * Value lists written part by part.
+   */
+  @Benchmark
+  public void writeParts() throws IOException {
+    for (MetaData parts : metricParts) {
+      writer.write(parts.typeInstance("count"), values[0]);
+      writer.write(parts.typeInstance("max"), values[1]);
+      writer.write(parts.typeInstance("mean"), values[2]);
+      writer.write(parts.typeInstance("total"), values[3]);
+    }
+    writer.flush();
+  }
+
+  /**
+   * Value lists written from precompiled templates as done by the reporter.
+   */
+  @Benchmark
+  public void writeTemplates() throws IOException {
+    for (PacketTemplate template : templates) {
+      writer.write(metaData, template, values);
+    }
+    writer.flush();
+  }
+}
@@ -0,0 +1,84 @@
+package io.ebean.metrics.collectd;
+
+import io.ebean.Database;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full report cycle of a synthetic metric set from snapshot to datagrams.
+ * <p>
+ * A chunk size of 0 encodes serially and otherwise in parallel chunks on the common pool.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportBenchmark {
+
+  @Param({"100", "10000", "100000"})
+  public int metrics;
+
+  @Param({"GAUGE", "DERIVE"})
+  public ValueMode valueMode;
+
+  @Param({"NONE", "ENCRYPT"})
+  public SecurityLevel securityLevel;
+
+  @Param({"0", "2048"})
+  public int chunkSize;
+
+  private CollectdReporter reporter;
+  private Snapshot snapshot;
+
+  @Setup
+  public void setup() {
+    CollectdReporter.Builder builder = CollectdReporter.forServer((Database) null)
+      .withHost("app-1.example.com")
+      .withValueMode(valueMode)
+      .withSecurityLevel(securityLevel)
+      .withUsername("bench")
+      .withPassword("secret");
+    if (chunkSize > 0) {
+      builder.withParallelEncoding(chunkSize);
+    }
+    reporter = builder.build(new NoopSender());
+
+    List<Metric> list = new ArrayList<>(metrics);
+    for (int i = 0; i < metrics; i++) {
+      final MetricKey key;
+      switch (i % 3) {
+        case 0:
+          key = new MetricKey(MetricKind.QUERY, Database.class, "findList.q" + i, null);
+          break;
+        case 1:
+          key = new MetricKey(MetricKind.TIMED, null, "txn.named" + i, null);
+          break;
+        default:
+          key = new MetricKey(MetricKind.COUNT, null, "l2.hit" + i, null);
+      }
+      list.add(new Metric(key, i % 50, (i % 50) * 120L, 900, 120));
+    }
+    snapshot = new Snapshot(1520961345L, 60, list);
+  }
+
+  @Benchmark
+  public void send() {
+    reporter.send(snapshot);
+  }
+}
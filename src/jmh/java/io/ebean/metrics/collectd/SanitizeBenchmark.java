@@ -0,0 +1,81 @@
+package io.ebean.metrics.collectd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sanitizing names that are legal and names that need replacement.
+ * <p>
+ * Repeating a name only measures a cache hit, so the uncached cases cycle through more
+ * distinct names than the cache holds such that every call sanitizes the name.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SanitizeBenchmark {
+
+  public String legalName = "orm.Customer.findList";
+  public String illegalName = "orm.Customer.find-by/name";
+  public String instanceName = "tenant-a/replica";
+
+  private String[] uncachedNames;
+  private String[] uncachedLongNames;
+  private int next;
+
+  @Setup
+  public void setup() {
+    final int count = Sanitize.MAX_CACHE_SIZE * 2;
+    uncachedNames = new String[count];
+    uncachedLongNames = new String[count];
+    for (int i = 0; i < count; i++) {
+      uncachedNames[i] = "orm.Customer.find-by/name." + i;
+      uncachedLongNames[i] = "orm.Customer.findListByNameAndAddressAndOrderStatus-with/fetch.customer.orders." + i;
+    }
+  }
+
+  @Benchmark
+  public String nameLegal() {
+    return Sanitize.name(legalName);
+  }
+
+  @Benchmark
+  public String nameIllegal() {
+    return Sanitize.name(illegalName);
+  }
+
+  @Benchmark
+  public String instanceName() {
+    return Sanitize.instanceName(instanceName);
+  }
+
+  @Benchmark
+  public String nameIllegalUncached() {
+    return Sanitize.name(uncachedNames[nextIndex()]);
+  }
+
+  @Benchmark
+  public String nameTruncatedUncached() {
+    return Sanitize.name(uncachedLongNames[nextIndex()]);
+  }
+
+  private int nextIndex() {
+    if (++next == uncachedNames.length) {
+      next = 0;
+    }
+    return next;
+  }
+}
@@ -0,0 +1,90 @@
+package io.ebean.metrics.collectd;
+
+/**
+ * Report interval that drops to a short interval during bursts of activity.
+ * <p>
+ * Activity is measured by the total time of the timed and query metrics per second and
+ * by their max latency. Each is compared against a slowly moving baseline and when either
+ * exceeds its baseline by the burst factor the interval drops to the minimum. After the
+ * given number of quiet reports the interval doubles back towards the base interval.
+ * </p>
+ */
+final class AdaptiveInterval {
+
+  /**
+   * Weight of each report in the baselines.
+   */
+  private static final double ALPHA = 0.1;
+
+  /**
+   * Activity below 1 millisecond is not considered a burst when the baseline is near zero.
+   */
+  private static final double MIN_ACTIVITY_MICROS = 1000;
+
+  private final long minSecs;
+  private final long baseSecs;
+  private final double burstFactor;
+  private final int quietCycles;
+
+  private volatile long intervalSecs;
+  private double loadBaseline;
+  private double maxBaseline;
+  private boolean warm;
+  private int quiet;
+
+  AdaptiveInterval(long minSecs, long baseSecs, double burstFactor, int quietCycles) {
+    if (minSecs < 1 || minSecs > baseSecs) {
+      throw new IllegalArgumentException("minSecs must be between 1 and the report period of " + baseSecs);
+    }
+    if (burstFactor <= 1) {
+      throw new IllegalArgumentException("burstFactor must be greater than 1 but was " + burstFactor);
+    }
+    this.minSecs = minSecs;
+    this.baseSecs = baseSecs;
+    this.burstFactor = burstFactor;
+    this.quietCycles = Math.max(1, quietCycles);
+    this.intervalSecs = baseSecs;
+  }
+
+  /**
+   * Return the interval in seconds until the next report.
+   */
+  long intervalSecs() {
+    return intervalSecs;
+  }
+
+  /**
+   * Update the interval given the activity of a report.
+   *
+   * @param totalMicros the total time of the metrics in the report interval
+   * @param maxMicros   the max latency of the metrics in the report interval
+   * @param periodSecs  the length of the report interval
+   * @return true if the activity was a burst
+   */
+  synchronized boolean update(long totalMicros, long maxMicros, long periodSecs) {
+    final double load = (double) totalMicros / Math.max(1, periodSecs);
+    if (!warm) {
+      loadBaseline = load;
+      maxBaseline = maxMicros;
+      warm = true;
+      return false;
+    }
+    final boolean burst = exceeds(load, loadBaseline) || exceeds(maxMicros, maxBaseline);
+    if (burst) {
+      intervalSecs = minSecs;
+      quiet = 0;
+    } else if (intervalSecs < baseSecs && ++quiet >= quietCycles) {
+      intervalSecs = Math.min(baseSecs, intervalSecs * 2);
+      quiet = 0;
+    }
+    // learn more slowly during a burst such that a long burst is not taken as normal
+    final double alpha = burst ? ALPHA / 4 : ALPHA;
+    loadBaseline += alpha * (load - loadBaseline);
+    maxBaseline += alpha * (maxMicros - maxBaseline);
+    return burst;
+  }
+
+  private boolean exceeds(double value, double baseline) {
+    return value > Math.max(baseline, MIN_ACTIVITY_MICROS) * burstFactor;
+  }
+}
@@ -0,0 +1,51 @@
+package io.ebean.metrics.collectd;
+
+/**
+ * Report instants on wall clock multiples of the period plus a fixed per host offset.
+ * <p>
+ * The offset is derived from the host name such that it is the same across restarts while
+ * spreading many hosts across the interval. The report timestamp is the boundary the
+ * instant belongs to such that all hosts report the same timestamps.
+ * </p>
+ */
+final class AlignedSchedule {
+
+  private final long periodMillis;
+  private final long offsetMillis;
+
+  AlignedSchedule(long periodMillis, long maxJitterMillis, String hostName) {
+    this.periodMillis = periodMillis;
+    this.offsetMillis = offset(hostName, Math.min(maxJitterMillis, periodMillis - 1));
+  }
+
+  /**
+   * Return the offset from the period boundary for the host in the range 0 to maxJitterMillis.
+   */
+  static long offset(String hostName, long maxJitterMillis) {
+    if (maxJitterMillis <= 0 || hostName == null) {
+      return 0;
+    }
+    // spread similar host names (app-1, app-2 ...) across the range
+    long hash = hostName.hashCode() * 0x9E3779B97F4A7C15L;
+    hash ^= (hash >>> 32);
+    return Math.floorMod(hash, maxJitterMillis + 1);
+  }
+
+  long offsetMillis() {
+    return offsetMillis;
+  }
+
+  /**
+   * Return the first report instant after the given time.
+   */
+  long next(long epochMillis) {
+    return Math.floorDiv(epochMillis - offsetMillis, periodMillis) * periodMillis + periodMillis + offsetMillis;
+  }
+
+  /**
+   * Return the period boundary (without the offset) of the given report instant.
+   */
+  long boundary(long epochMillis) {
+    return Math.floorDiv(epochMillis - offsetMillis, periodMillis) * periodMillis;
+  }
+}
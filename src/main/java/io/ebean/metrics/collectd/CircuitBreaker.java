@@ -0,0 +1,123 @@
+package io.ebean.metrics.collectd;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops sending to collectd after consecutive send failures.
+ * <p>
+ * After the given number of consecutive failures the circuit opens and sends are skipped
+ * for the backoff period. The next send after that is a probe which closes the circuit
+ * when it succeeds or opens it again for double the backoff (up to the max) when it fails.
+ * Each change of state is logged once.
+ * </p>
+ */
+final class CircuitBreaker {
+
+  private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  /**
+   * Default number of consecutive failures that open the circuit.
+   */
+  static final int DEFAULT_FAILURE_THRESHOLD = 3;
+
+  /**
+   * Default initial and max backoff.
+   */
+  static final long DEFAULT_BACKOFF_MILLIS = 5_000;
+  static final long DEFAULT_MAX_BACKOFF_MILLIS = 300_000;
+
+  private final int failureThreshold;
+  private final long initialBackoffNanos;
+  private final long maxBackoffNanos;
+  private final LongSupplier nanoTime;
+
+  private State state = State.CLOSED;
+  private int failures;
+  private long backoffNanos;
+  private long openUntil;
+
+  CircuitBreaker(int failureThreshold, long backoffMillis, long maxBackoffMillis) {
+    this(failureThreshold, backoffMillis, maxBackoffMillis, System::nanoTime);
+  }
+
+  CircuitBreaker(int failureThreshold, long backoffMillis, long maxBackoffMillis, LongSupplier nanoTime) {
+    if (failureThreshold < 1) {
+      throw new IllegalArgumentException("failureThreshold must be at least 1 but was " + failureThreshold);
+    }
+    if (backoffMillis < 1 || maxBackoffMillis < backoffMillis) {
+      throw new IllegalArgumentException("backoff must be at least 1 and not more than the max backoff of " + maxBackoffMillis);
+    }
+    this.failureThreshold = failureThreshold;
+    this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+    this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+    this.nanoTime = nanoTime;
+    this.backoffNanos = initialBackoffNanos;
+  }
+
+  /**
+   * Return true if a send should be attempted (when closed or to probe after the backoff).
+   */
+  synchronized boolean allow() {
+    if (state == State.OPEN) {
+      if (nanoTime.getAsLong() - openUntil < 0) {
+        return false;
+      }
+      state = State.HALF_OPEN;
+      log.info("Probing collectd after backing off for {}ms", TimeUnit.NANOSECONDS.toMillis(backoffNanos));
+    }
+    return true;
+  }
+
+  /**
+   * Record a successful send closing the circuit.
+   */
+  synchronized void success() {
+    if (state != State.CLOSED) {
+      log.info("Sending to collectd again");
+      state = State.CLOSED;
+    }
+    failures = 0;
+    backoffNanos = initialBackoffNanos;
+  }
+
+  /**
+   * Record a failed send opening the circuit after the failure threshold or a failed probe.
+   */
+  synchronized void failure(Exception e) {
+    failures++;
+    if (state == State.HALF_OPEN) {
+      backoffNanos = Math.min(maxBackoffNanos, backoffNanos * 2);
+      open();
+      log.warn("Probe to collectd failed, backing off for {}ms [{}]", TimeUnit.NANOSECONDS.toMillis(backoffNanos), e.getMessage());
+    } else if (state == State.CLOSED && failures >= failureThreshold) {
+      open();
+      log.warn("Failed to send to collectd {} times, backing off for {}ms [{}]", failures, TimeUnit.NANOSECONDS.toMillis(backoffNanos), e.getMessage());
+    }
+  }
+
+  private void open() {
+    state = State.OPEN;
+    openUntil = nanoTime.getAsLong() + backoffNanos;
+  }
+
+  synchronized State state() {
+    return state;
+  }
+
+  /**
+   * Return the current backoff period in milliseconds.
+   */
+  synchronized long backoffMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(backoffNanos);
+  }
+}
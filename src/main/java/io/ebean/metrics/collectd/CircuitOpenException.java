@@ -0,0 +1,24 @@
+package io.ebean.metrics.collectd;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of sending while the circuit breaker is open.
+ * <p>
+ * This is expected while collectd is unreachable and so is not logged per send and has
+ * no stack trace.
+ * </p>
+ */
+final class CircuitOpenException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  CircuitOpenException() {
+    super("circuit open, not sending to collectd");
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+}
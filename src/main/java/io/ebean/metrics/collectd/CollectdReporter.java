@@ -1,5 +1,6 @@
 package io.ebean.metrics.collectd;
 
+import io.ebean.BackgroundExecutor;
 import io.ebean.Database;
 import io.ebean.meta.BasicMetricVisitor;
 import io.ebean.meta.MetaCountMetric;
@@ -9,9 +10,29 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.net.InetAddress;
+import java.nio.file.Path;
 import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 /**
  * A reporter which publishes the Ebean metrics to a Collectd server.
@@ -28,16 +49,34 @@ import java.util.concurrent.TimeUnit;
  *       .reportEvery(60);
  *
  * }</pre>
+ * <p>
+ * Multiple databases can be reported together sharing the datagrams sent. Each database
+ * is then reported with its name as the Collectd plugin instance.
+ * </p>
+ * <pre>@{code
+ *
+ *   CollectdReporter.forServers(tenantA, tenantB, readReplica)
+ *       .withCollectdHost("localhost")
+ *       .reportEvery(60);
+ *
+ * }</pre>
  */
 public class CollectdReporter {
 
   public static Builder forServer(Database database) {
-    return new Builder(database);
+    return new Builder(Collections.singletonList(database));
+  }
+
+  /**
+   * Report the metrics of multiple databases through one reporter.
+   */
+  public static Builder forServers(Database... databases) {
+    return new Builder(Arrays.asList(databases));
   }
 
   public static class Builder {
 
-    private final Database database;
+    private final List<Database> databases = new ArrayList<>();
     private String collectdHost;
     private int collectdPort = 25826;
     private String sourceHost;
@@ -46,9 +85,57 @@ public class CollectdReporter {
     private String password = "";
     private Clock clock = Clock.systemDefaultZone();
     private String prefixQuery = "db.query.";
+    private int packetSize = PacketWriter.DEFAULT_PACKET_SIZE;
+    private int batchSize = PacketWriter.DEFAULT_BATCH_SIZE;
+    private boolean directBuffers;
+    private long resolveTtlSecs = Sender.DEFAULT_RESOLVE_TTL_SECS;
+    private int queueCapacity;
+    private QueueFullPolicy queueFullPolicy = QueueFullPolicy.DROP_OLDEST;
+    private ThreadFactory threadFactory = ReportPipeline.defaultThreadFactory();
+    private ValueMode valueMode = ValueMode.GAUGE;
+    private boolean resetMetrics = true;
+    private int evictAfterCycles = DEFAULT_EVICT_AFTER_CYCLES;
+    private int retainCumulativeCycles = DEFAULT_RETAIN_CUMULATIVE_CYCLES;
+    private int idleHeartbeatCycles;
+    private double[] percentiles = DEFAULT_PERCENTILES;
+    private boolean selfMetrics = true;
+    private long maxJitterMillis = -1;
+    private long adaptiveMinSecs;
+    private double burstFactor;
+    private int quietCycles;
+    private TransportType transportType = TransportType.UDP;
+    private String unixSocketPath;
+    private Path spoolPath;
+    private int spoolCapacity;
+    private int spoolReplayRate = Sender.DEFAULT_REPLAY_RATE;
+    private int failureThreshold = CircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+    private long backoffMillis = CircuitBreaker.DEFAULT_BACKOFF_MILLIS;
+    private long maxBackoffMillis = CircuitBreaker.DEFAULT_MAX_BACKOFF_MILLIS;
+    private int topQueries;
+    private QueryRank queryRank = QueryRank.TOTAL;
+    private int parallelChunkSize;
+    private Executor parallelExecutor;
+    private boolean highResolution;
+    private final List<String> includeNames = new ArrayList<>();
+    private final List<String> excludeNames = new ArrayList<>();
+    private final Set<Class<?>> includeTypes = new HashSet<>();
+    private final Set<Class<?>> excludeTypes = new HashSet<>();
+    private final Set<MetricKind> includeKinds = EnumSet.noneOf(MetricKind.class);
+    private final Set<MetricKind> excludeKinds = EnumSet.noneOf(MetricKind.class);
 
-    private Builder(Database database) {
-      this.database = database;
+    private Builder(List<Database> databases) {
+      this.databases.addAll(databases);
+    }
+
+    /**
+     * Add another database to report metrics for.
+     * <p>
+     * When reporting multiple databases the database name is used as the Collectd plugin instance.
+     * </p>
+     */
+    public Builder withServer(Database database) {
+      this.databases.add(database);
+      return this;
     }
 
     /**
@@ -67,6 +154,17 @@ public class CollectdReporter {
       return this;
     }
 
+    /**
+     * Set the time in seconds after which the Collectd host name is resolved again. Defaults to 300.
+     * <p>
+     * The host name is also resolved again after an error sending to Collectd.
+     * </p>
+     */
+    public Builder withResolveTtlSecs(long resolveTtlSecs) {
+      this.resolveTtlSecs = resolveTtlSecs;
+      return this;
+    }
+
     /**
      * Set the host of the source metrics (the container host name).
      */
@@ -115,6 +213,398 @@ public class CollectdReporter {
       return this;
     }
 
+    /**
+     * Set how metric values are sent. Defaults to {@link ValueMode#GAUGE}.
+     * <p>
+     * With {@link ValueMode#DERIVE} counts and totals are sent as cumulative DERIVE values
+     * and timed metrics as a single {@code ebean_timed} value list, which requires a
+     * matching entry in the Collectd types.db.
+     * </p>
+     */
+    public Builder withValueMode(ValueMode valueMode) {
+      this.valueMode = valueMode;
+      return this;
+    }
+
+    /**
+     * Set to false to read the Ebean metrics without resetting them. Defaults to true.
+     * <p>
+     * The reporter then keeps the cumulative count and total of each metric and computes
+     * the interval values itself. The cumulative values only move forward once a report is
+     * sent without error so a failed send delays rather than loses those values, and other
+     * consumers of the Ebean metrics are not affected by the reporter. Note that max is then
+     * the maximum since the metric was last reset.
+     * </p>
+     */
+    public Builder withResetMetrics(boolean resetMetrics) {
+      this.resetMetrics = resetMetrics;
+      return this;
+    }
+
+    /**
+     * Skip metrics with no activity in the interval, sending them only every given number of reports.
+     * <p>
+     * Most queries are idle in any one interval. With this set an idle metric is sent as a
+     * heartbeat such that it does not look to have gone away. Defaults to 0 which sends all
+     * metrics every report.
+     * </p>
+     *
+     * @param heartbeatCycles the number of reports between sending an idle metric (0 to disable)
+     */
+    public Builder withSkipIdle(int heartbeatCycles) {
+      this.idleHeartbeatCycles = heartbeatCycles;
+      return this;
+    }
+
+    /**
+     * Report on wall clock multiples of the period (e.g. every minute on the minute) rather
+     * than with a fixed delay between reports.
+     * <p>
+     * Each host reports at a fixed offset from the boundary of up to maxJitterMillis derived
+     * from the host name. This spreads many hosts across the interval while they all report
+     * the boundary as the timestamp. Only used with {@link #reportEvery(long)}.
+     * </p>
+     *
+     * @param maxJitterMillis the maximum per host offset in millis (0 for none)
+     */
+    public Builder withAlignedSchedule(long maxJitterMillis) {
+      this.maxJitterMillis = maxJitterMillis;
+      return this;
+    }
+
+    /**
+     * Report more frequently during bursts of activity.
+     * <p>
+     * The period given to {@link #reportEvery(long)} is the base interval. When the total
+     * time or max latency of the timed and query metrics exceeds its running baseline by
+     * the burst factor the interval drops to minSecs. After quietCycles reports without a
+     * burst the interval doubles back towards the base interval.
+     * </p>
+     *
+     * @param minSecs     the interval in seconds used during a burst
+     * @param burstFactor how many times the baseline activity is a burst (e.g. 3)
+     * @param quietCycles the number of reports without a burst before the interval is doubled
+     */
+    public Builder withAdaptiveInterval(long minSecs, double burstFactor, int quietCycles) {
+      this.adaptiveMinSecs = minSecs;
+      this.burstFactor = burstFactor;
+      this.quietCycles = quietCycles;
+      return this;
+    }
+
+    /**
+     * Set the transport used to send to collectd. Defaults to UDP.
+     * <p>
+     * TCP and UNIX send a stream with each datagram prefixed by its length as a 4 byte int
+     * and are intended for a local relay. TCP connects to the collectd host and port.
+     * </p>
+     */
+    public Builder withTransport(TransportType transportType) {
+      this.transportType = transportType;
+      return this;
+    }
+
+    /**
+     * Send over a Unix domain socket at the given path (requires Java 16+).
+     */
+    public Builder withUnixSocket(String path) {
+      this.transportType = TransportType.UNIX;
+      this.unixSocketPath = path;
+      return this;
+    }
+
+    /**
+     * Spool datagrams that fail to send to a memory mapped file and replay them later.
+     * <p>
+     * The encoded datagrams are spooled as is and so are replayed with their original
+     * timestamps. When the spool is full the oldest datagrams are dropped. The spool is
+     * kept across restarts of the application and closed on {@link CollectdReporter#shutdown()}.
+     * </p>
+     * <p>
+     * When scheduled with {@link #reportEvery(long)} spooled datagrams are replayed every
+     * second and otherwise after each report sent.
+     * </p>
+     *
+     * @param path          the spool file
+     * @param capacityBytes the size of the spool (at least 1024 bytes)
+     */
+    public Builder withSpool(Path path, int capacityBytes) {
+      this.spoolPath = path;
+      this.spoolCapacity = capacityBytes;
+      return this;
+    }
+
+    /**
+     * Set the max number of spooled datagrams replayed per second. Defaults to 50.
+     * <p>
+     * Limits the extra load on collectd when it comes back after an outage.
+     * </p>
+     */
+    public Builder withSpoolReplayRate(int datagramsPerSecond) {
+      if (datagramsPerSecond < 1) {
+        throw new IllegalArgumentException("spool replay rate must be at least 1 but was " + datagramsPerSecond);
+      }
+      this.spoolReplayRate = datagramsPerSecond;
+      return this;
+    }
+
+    /**
+     * Set when to stop sending after failures. Defaults to 3 failures and a backoff of 5 seconds up to 5 minutes.
+     * <p>
+     * After the given number of consecutive failed sends no sends are attempted for the
+     * backoff period. The next send is then a probe and each failed probe doubles the
+     * backoff up to the max. While not sending the datagrams are spooled (with a spool)
+     * or dropped.
+     * </p>
+     *
+     * @param failureThreshold the consecutive failures before backing off (0 to never back off)
+     * @param backoffMillis    the initial backoff period
+     * @param maxBackoffMillis the max backoff period
+     */
+    public Builder withCircuitBreaker(int failureThreshold, long backoffMillis, long maxBackoffMillis) {
+      this.failureThreshold = failureThreshold;
+      this.backoffMillis = backoffMillis;
+      this.maxBackoffMillis = maxBackoffMillis;
+      return this;
+    }
+
+    /**
+     * Only report the top query metrics of each report with the rest rolled up into one.
+     * <p>
+     * Queries are ranked by their values for the interval and those not in the top are sent
+     * combined as the query {@code other} (with the query prefix) such that the total load
+     * remains visible while the number of query metrics sent is capped.
+     * </p>
+     *
+     * @param topQueries the number of queries to report individually
+     * @param rank       how the queries are ranked
+     */
+    public Builder withTopQueries(int topQueries, QueryRank rank) {
+      this.topQueries = topQueries;
+      this.queryRank = rank;
+      return this;
+    }
+
+    /**
+     * Encode large reports in parallel chunks on the common ForkJoin pool.
+     * <p>
+     * See {@link #withParallelEncoding(int, Executor)}.
+     * </p>
+     */
+    public Builder withParallelEncoding(int chunkSize) {
+      return withParallelEncoding(chunkSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Encode reports with more than the chunk size of metrics in parallel chunks.
+     * <p>
+     * Each chunk of metrics is encoded (and signed or encrypted) into its own datagrams
+     * on the executor and the datagrams are then sent in chunk order. Each chunk starts
+     * a new datagram so the datagrams are packed a little less densely than serially.
+     * </p>
+     *
+     * @param chunkSize the number of metrics per chunk
+     * @param executor  the executor used to encode the chunks
+     */
+    public Builder withParallelEncoding(int chunkSize, Executor executor) {
+      if (chunkSize < 1) {
+        throw new IllegalArgumentException("chunkSize must be at least 1 but was " + chunkSize);
+      }
+      this.parallelChunkSize = chunkSize;
+      this.parallelExecutor = executor;
+      return this;
+    }
+
+    /**
+     * Only report metrics with names matching one of the patterns.
+     * <p>
+     * Patterns are globs where {@code *} matches any chars and {@code ?} a single char
+     * (e.g. {@code txn.*}) or regular expressions when prefixed with {@code regex:}.
+     * The name matched is the Ebean metric name (without the query prefix).
+     * </p>
+     */
+    public Builder withInclude(String... patterns) {
+      includeNames.addAll(Arrays.asList(patterns));
+      return this;
+    }
+
+    /**
+     * Do not report metrics with names matching one of the glob or {@code regex:} patterns.
+     */
+    public Builder withExclude(String... patterns) {
+      excludeNames.addAll(Arrays.asList(patterns));
+      return this;
+    }
+
+    /**
+     * Only report query metrics for the given bean types.
+     */
+    public Builder withIncludeTypes(Class<?>... types) {
+      includeTypes.addAll(Arrays.asList(types));
+      return this;
+    }
+
+    /**
+     * Do not report query metrics for the given bean types.
+     */
+    public Builder withExcludeTypes(Class<?>... types) {
+      excludeTypes.addAll(Arrays.asList(types));
+      return this;
+    }
+
+    /**
+     * Only report metrics of the given kinds.
+     */
+    public Builder withIncludeKinds(MetricKind... kinds) {
+      includeKinds.addAll(Arrays.asList(kinds));
+      return this;
+    }
+
+    /**
+     * Do not report metrics of the given kinds.
+     */
+    public Builder withExcludeKinds(MetricKind... kinds) {
+      excludeKinds.addAll(Arrays.asList(kinds));
+      return this;
+    }
+
+    private MetricFilter filter() {
+      if (includeNames.isEmpty() && excludeNames.isEmpty() && includeTypes.isEmpty() && excludeTypes.isEmpty()
+        && includeKinds.isEmpty() && excludeKinds.isEmpty()) {
+        return null;
+      }
+      return new MetricFilter(includeNames, excludeNames, includeTypes, excludeTypes, includeKinds, excludeKinds);
+    }
+
+    /**
+     * Set false to not send the reporter's own metrics. Defaults to true.
+     * <p>
+     * The reporter sends the totals of its work (see {@link ReporterStats}) as plugin
+     * {@code ebean_collectd} such that its overhead and send errors can be monitored.
+     * </p>
+     */
+    public Builder withSelfMetrics(boolean selfMetrics) {
+      this.selfMetrics = selfMetrics;
+      return this;
+    }
+
+    /**
+     * Set the percentiles reported for latency histograms. Defaults to 0.5, 0.9, 0.99 and 0.999.
+     */
+    public Builder withPercentiles(double... percentiles) {
+      for (double percentile : percentiles) {
+        if (percentile <= 0 || percentile > 1) {
+          throw new IllegalArgumentException("percentile must be greater than 0 and at most 1: " + percentile);
+        }
+      }
+      this.percentiles = percentiles.clone();
+      return this;
+    }
+
+    /**
+     * Set the number of reports after which a metric that is no longer reported is forgotten. Defaults to 60.
+     * <p>
+     * The reporter holds state and an encoded template per metric. The template is released when
+     * the metric has not been seen for this many reports (for example queries that are no longer run).
+     * With {@link ValueMode#DERIVE} or without resetting metrics the cumulative count and total
+     * of the metric are kept for longer, see {@link #withRetainCumulativeCycles(int)}.
+     * </p>
+     */
+    public Builder withEvictAfterCycles(int evictAfterCycles) {
+      this.evictAfterCycles = evictAfterCycles;
+      return this;
+    }
+
+    /**
+     * Set the number of reports after which the cumulative values of a metric that is no longer
+     * reported are forgotten. Defaults to 1440 (a day when reporting every minute).
+     * <p>
+     * With {@link ValueMode#DERIVE} or without resetting metrics an evicted metric keeps its
+     * cumulative count and total (a few longs without the template) such that it carries on
+     * from where it was if it is reported again. After this many reports it is removed such
+     * that memory stays bounded when query names churn. A metric reported again after that
+     * restarts from 0, which collectd sees as a counter reset (a single gap in the rate).
+     * </p>
+     */
+    public Builder withRetainCumulativeCycles(int retainCumulativeCycles) {
+      this.retainCumulativeCycles = retainCumulativeCycles;
+      return this;
+    }
+
+    /**
+     * Set the maximum datagram payload size in bytes. Defaults to 1452 as used by the collectd network plugin.
+     * <p>
+     * Value lists are packed into a datagram until the next one would not fit. When signing or
+     * encrypting this size includes the security envelope.
+     * </p>
+     */
+    public Builder withPacketSize(int packetSize) {
+      this.packetSize = packetSize;
+      return this;
+    }
+
+    /**
+     * Set the number of datagrams to collect before sending them as a batch. Defaults to 32.
+     * <p>
+     * Any remaining datagrams are sent at the end of each report. With UDP each datagram is
+     * still sent with its own system call (there is no batch send in Java) while TCP and
+     * UNIX write a batch together.
+     * </p>
+     */
+    public Builder withBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Set to true to use direct buffers for encoding datagrams. Defaults to false.
+     * <p>
+     * Direct buffers avoid a copy when sending with {@link SecurityLevel#NONE}. With
+     * SIGN or ENCRYPT heap buffers are generally better as the crypto providers work on arrays.
+     * </p>
+     */
+    public Builder withDirectBuffers(boolean directBuffers) {
+      this.directBuffers = directBuffers;
+      return this;
+    }
+
+    /**
+     * Encode and send metrics on a dedicated thread fed by a bounded queue of snapshots.
+     * <p>
+     * Reporting on the background executor then only collects a snapshot of the metrics
+     * and never waits on encoding or network IO. The policy determines what happens
+     * when the queue is full because sending has fallen behind.
+     * </p>
+     */
+    public Builder withPipeline(int queueCapacity, QueueFullPolicy policy) {
+      this.queueCapacity = queueCapacity;
+      this.queueFullPolicy = policy;
+      return this;
+    }
+
+    /**
+     * Send the time and interval as high resolution parts (collectd 5.0+).
+     * <p>
+     * These are in units of 2^-30 seconds rather than whole seconds and are used
+     * automatically for report periods that are not whole seconds.
+     * </p>
+     */
+    public Builder withHighResolutionTime(boolean highResolution) {
+      this.highResolution = highResolution;
+      return this;
+    }
+
+    /**
+     * Set the thread factory used to create the pipeline sending thread.
+     * <p>
+     * Defaults to a daemon thread. On JDK 21+ this can be {@code Thread.ofVirtual().factory()}.
+     * </p>
+     */
+    public Builder withThreadFactory(ThreadFactory threadFactory) {
+      this.threadFactory = threadFactory;
+      return this;
+    }
+
     /**
      * Specify how frequently to report in seconds.
      * <p>
@@ -122,15 +612,109 @@ public class CollectdReporter {
      * </p>
      */
     public void reportEvery(long periodSecs) {
+      AdaptiveInterval adaptive = null;
+      if (adaptiveMinSecs > 0) {
+        if (maxJitterMillis >= 0) {
+          throw new IllegalArgumentException("adaptive interval can not be used with an aligned schedule");
+        }
+        adaptive = new AdaptiveInterval(adaptiveMinSecs, periodSecs, burstFactor, quietCycles);
+      }
       CollectdReporter collectdReporter = build();
-      Runnable runnable = collectdReporter.reportRunnable(periodSecs);
-      database.backgroundExecutor().scheduleWithFixedDelay(runnable, periodSecs, periodSecs, TimeUnit.SECONDS);
+      if (adaptive != null) {
+        BackgroundExecutor executor = databases.get(0).backgroundExecutor();
+        collectdReporter.scheduleAdaptive(executor, adaptive);
+        collectdReporter.scheduleReplay(executor);
+      } else {
+        schedule(collectdReporter, TimeUnit.SECONDS.toMillis(periodSecs));
+      }
+    }
+
+    /**
+     * Specify how frequently to report in milliseconds.
+     * <p>
+     * Periods that are not whole seconds (such as 250ms during a load test) are sent with
+     * the high resolution time and interval parts. This can not be used with an adaptive
+     * interval.
+     * </p>
+     */
+    public void reportEveryMillis(long periodMillis) {
+      if (periodMillis < 1) {
+        throw new IllegalArgumentException("periodMillis must be at least 1 but was " + periodMillis);
+      }
+      if (adaptiveMinSecs > 0) {
+        throw new IllegalArgumentException("adaptive interval can not be used with reportEveryMillis");
+      }
+      if (periodMillis % 1000 != 0) {
+        highResolution = true;
+      }
+      schedule(build(), periodMillis);
+    }
+
+    private void schedule(CollectdReporter collectdReporter, long periodMillis) {
+      BackgroundExecutor executor = databases.get(0).backgroundExecutor();
+      if (maxJitterMillis >= 0) {
+        collectdReporter.scheduleAligned(executor, periodMillis, maxJitterMillis);
+      } else {
+        collectdReporter.scheduleFixedDelay(executor, periodMillis);
+      }
+      collectdReporter.scheduleReplay(executor);
     }
 
     /**
      * Build and return a CollectdReporter.
      */
     public CollectdReporter build() {
+      // validated before the spool file is opened and mapped
+      validate();
+      return build(new Sender(transport(), spool(), spoolReplayRate, circuitBreaker()));
+    }
+
+    private CircuitBreaker circuitBreaker() {
+      return failureThreshold > 0 ? new CircuitBreaker(failureThreshold, backoffMillis, maxBackoffMillis) : null;
+    }
+
+    private Spool spool() {
+      if (spoolPath == null) {
+        return null;
+      }
+      try {
+        return new Spool(spoolPath, spoolCapacity);
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to open spool " + spoolPath, e);
+      }
+    }
+
+    private Transport transport() {
+      switch (transportType) {
+        case TCP:
+          return new TcpTransport(collectdHost, collectdPort, StreamTransport.DEFAULT_WRITE_BUFFER_SIZE);
+        case UNIX:
+          if (unixSocketPath == null) {
+            throw new IllegalArgumentException("unixSocketPath is required for transport UNIX");
+          }
+          return new UnixSocketTransport(unixSocketPath, StreamTransport.DEFAULT_WRITE_BUFFER_SIZE);
+        default:
+          return new UdpTransport(collectdHost, collectdPort, resolveTtlSecs);
+      }
+    }
+
+    /**
+     * Return the factory of packet writers (one for the sender and one per parallel chunk).
+     */
+    private Function<Sender, PacketWriter> writers() {
+      final String username = this.username;
+      final String password = this.password;
+      final SecurityLevel securityLevel = this.securityLevel;
+      final int packetSize = this.packetSize;
+      final int batchSize = this.batchSize;
+      final boolean directBuffers = this.directBuffers;
+      return sender -> new PacketWriter(sender, username, password, securityLevel, packetSize, batchSize, directBuffers);
+    }
+
+    private void validate() {
+      if (databases.isEmpty()) {
+        throw new IllegalArgumentException("at least one database is required");
+      }
       if (securityLevel != SecurityLevel.NONE) {
         if (username.isEmpty()) {
           throw new IllegalArgumentException("username is required for securityLevel: " + securityLevel);
@@ -139,29 +723,136 @@ public class CollectdReporter {
           throw new IllegalArgumentException("password is required for securityLevel: " + securityLevel);
         }
       }
-      Sender sender = new Sender(collectdHost, collectdPort);
-      return new CollectdReporter(database, sourceHost, sender, username, password, securityLevel, clock, prefixQuery);
+    }
+
+    /**
+     * Build with the given sender.
+     */
+    CollectdReporter build(Sender sender) {
+      validate();
+      CollectdReporter reporter = new CollectdReporter(this, sender, writers());
+      if (queueCapacity > 0) {
+        reporter.startPipeline(new ReportPipeline(queueCapacity, queueFullPolicy, threadFactory, reporter::send));
+      }
+      return reporter;
     }
   }
 
   private static final Logger log = LoggerFactory.getLogger(CollectdReporter.class);
   private static final String FALLBACK_HOST_NAME = "localhost";
+  private static final int DEFAULT_EVICT_AFTER_CYCLES = 60;
+  private static final int DEFAULT_RETAIN_CUMULATIVE_CYCLES = 1440;
+  private static final String STATS_PLUGIN = "ebean_collectd";
+  private static final double[] DEFAULT_PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+  private static final String TYPE_GAUGE = "gauge";
+  private static final String TYPE_DERIVE = "derive";
+  private static final String TYPE_TIMED = "ebean_timed";
+  private static final String[] NO_TYPE_INSTANCE = {null};
+  private static final String[] COUNT_TYPE_INSTANCES = {"count"};
+  private static final String[] TIMED_TYPE_INSTANCES = {"count", "max", "mean", "total"};
+  private static final DataSourceType[][] DERIVE_COUNT_SOURCES = {{DataSourceType.DERIVE}};
+  private static final DataSourceType[][] DERIVE_TIMED_SOURCES = {{DataSourceType.DERIVE, DataSourceType.DERIVE, DataSourceType.GAUGE, DataSourceType.GAUGE}};
+  private static final DataSourceType[][] GAUGE_COUNT_SOURCES = {{DataSourceType.GAUGE}};
+  private static final DataSourceType[][] GAUGE_TIMED_SOURCES = {{DataSourceType.GAUGE}, {DataSourceType.GAUGE}, {DataSourceType.GAUGE}, {DataSourceType.GAUGE}};
 
-  private final Database database;
+  private final List<Database> databases;
   private final String hostName;
   private final Sender sender;
-  private final PacketWriter writer;
+  private final Function<Sender, PacketWriter> writers;
+  private final Encoder encoder;
   private final Clock clock;
   private final String prefixQuery;
+  private final ValueMode valueMode;
+  private final boolean resetMetrics;
+  private final Map<MetricKey, Series> seriesMap = new HashMap<>();
+  private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+  private final double[] percentiles;
+  private final String[] percentileNames;
+  private final DataSourceType[][] percentileSources;
+  private final List<Series> pendingCommit = new ArrayList<>();
+  private final int evictAfterCycles;
+  private final int retainCumulativeCycles;
+  private final int idleHeartbeatCycles;
+  private long cycle;
+  private final PacketTemplate statsTemplate;
+  private final double[] statsValues = new double[ReporterStats.NAMES.length];
+  private final double[] previousStatsValues = new double[ReporterStats.NAMES.length];
+  private volatile ReporterStats stats = ReporterStats.EMPTY;
+  private ReporterStats previousStats = ReporterStats.EMPTY;
+  private ReportPipeline pipeline;
+  private volatile boolean shutdown;
+  private final List<ScheduledFuture<?>> scheduled = new ArrayList<>();
+  private AdaptiveInterval adaptive;
+  private final MetricFilter filter;
+  private final TopQueries topQueries;
+  private long cycleTotal;
+  private long cycleMax;
+  private final int parallelChunkSize;
+  private final Executor parallelExecutor;
+  private final boolean highResolution;
+  private final List<Encoder> chunkEncoders = new ArrayList<>();
+  private final List<Item> items = new ArrayList<>();
+  private int itemCount;
+  private boolean deferWrites;
 
-  private CollectdReporter(Database database, String hostname, Sender sender, String username, String password,
-                           SecurityLevel securityLevel, Clock clock, String prefixQuery) {
-    this.database = database;
-    this.clock = clock;
+  private CollectdReporter(Builder builder, Sender sender, Function<Sender, PacketWriter> writers) {
+    this.databases = new ArrayList<>(builder.databases);
+    this.clock = builder.clock;
     this.sender = sender;
-    this.prefixQuery = prefixQuery;
-    this.hostName = (hostname != null) ? hostname : resolveHostName();
-    this.writer = new PacketWriter(sender, username, password, securityLevel);
+    this.writers = writers;
+    this.prefixQuery = builder.prefixQuery;
+    this.valueMode = builder.valueMode;
+    this.resetMetrics = builder.resetMetrics;
+    this.evictAfterCycles = builder.evictAfterCycles;
+    this.retainCumulativeCycles = builder.retainCumulativeCycles;
+    this.idleHeartbeatCycles = builder.idleHeartbeatCycles;
+    this.percentiles = builder.percentiles;
+    this.percentileNames = new String[percentiles.length];
+    this.percentileSources = new DataSourceType[percentiles.length][];
+    for (int i = 0; i < percentiles.length; i++) {
+      percentileNames[i] = percentileName(percentiles[i]);
+      percentileSources[i] = new DataSourceType[]{DataSourceType.GAUGE};
+    }
+    this.encoder = new Encoder(writers.apply(sender), null);
+    this.parallelChunkSize = builder.parallelChunkSize;
+    this.parallelExecutor = builder.parallelExecutor;
+    this.highResolution = builder.highResolution;
+    this.filter = builder.filter();
+    this.topQueries = builder.topQueries > 0 ? new TopQueries(builder.topQueries, builder.queryRank) : null;
+    this.statsTemplate = builder.selfMetrics ? statsTemplate(valueMode) : null;
+    this.hostName = (builder.sourceHost != null) ? builder.sourceHost : resolveHostName();
+  }
+
+  private static PacketTemplate statsTemplate(ValueMode valueMode) {
+    final DataSourceType type = valueMode == ValueMode.DERIVE ? DataSourceType.DERIVE : DataSourceType.GAUGE;
+    final DataSourceType[][] types = new DataSourceType[ReporterStats.NAMES.length][];
+    for (int i = 0; i < types.length; i++) {
+      types[i] = new DataSourceType[]{type};
+    }
+    return PacketTemplate.compile(STATS_PLUGIN, null, type == DataSourceType.DERIVE ? TYPE_DERIVE : TYPE_GAUGE, ReporterStats.NAMES, types);
+  }
+
+  /**
+   * Return the type instance for the percentile (p50, p99, p999 etc).
+   */
+  static String percentileName(double percentile) {
+    return "p" + BigDecimal.valueOf(percentile).movePointRight(2).stripTrailingZeros().toPlainString().replace(".", "");
+  }
+
+  /**
+   * Return the latency histogram with the given name creating it if required.
+   * <p>
+   * The histogram is reported with the count, max, mean and total of the latencies recorded
+   * along with the configured percentiles as type instances p50, p90, p99 and p999.
+   * </p>
+   */
+  public LatencyHistogram histogram(String name) {
+    return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+  }
+
+  private void startPipeline(ReportPipeline pipeline) {
+    this.pipeline = pipeline;
+    pipeline.start();
   }
 
   private String resolveHostName() {
@@ -177,98 +868,663 @@ public class CollectdReporter {
    * Return a runnable to perform periodic reporting of the metrics.
    */
   public Runnable reportRunnable(long reportFreqSecs) {
-    return new ReportRunner(reportFreqSecs);
+    return reportRunnableMillis(TimeUnit.SECONDS.toMillis(reportFreqSecs));
+  }
+
+  private Runnable reportRunnableMillis(long periodMillis) {
+    return new ReportRunner(periodMillis);
+  }
+
+  /**
+   * Schedule reporting with a fixed delay between reports.
+   */
+  void scheduleFixedDelay(BackgroundExecutor executor, long periodMillis) {
+    scheduled(executor.scheduleWithFixedDelay(reportRunnableMillis(periodMillis), periodMillis, periodMillis, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Hold the future of a scheduled task such that it is cancelled on shutdown.
+   */
+  private void scheduled(ScheduledFuture<?> future) {
+    synchronized (scheduled) {
+      scheduled.removeIf(Future::isDone);
+      scheduled.add(future);
+    }
+    if (shutdown) {
+      // scheduled while shutting down
+      future.cancel(false);
+    }
+  }
+
+  private void cancelScheduled() {
+    synchronized (scheduled) {
+      for (ScheduledFuture<?> future : scheduled) {
+        future.cancel(false);
+      }
+      scheduled.clear();
+    }
+  }
+
+  /**
+   * Schedule reporting on wall clock multiples of the period offset by the host jitter.
+   */
+  void scheduleAligned(BackgroundExecutor executor, long periodMillis, long maxJitterMillis) {
+    final AlignedSchedule schedule = new AlignedSchedule(periodMillis, maxJitterMillis, hostName);
+    new AlignedReportRunner(executor, schedule, periodMillis).scheduleNext(clock.millis());
+  }
+
+  /**
+   * Reports and then schedules itself for the next report instant.
+   * <p>
+   * The delay is computed from the clock each time such that the time taken to report
+   * (or a late run) does not move later reports.
+   * </p>
+   */
+  private class AlignedReportRunner implements Runnable {
+
+    final BackgroundExecutor executor;
+    final AlignedSchedule schedule;
+    final long periodMillis;
+    long due;
+
+    AlignedReportRunner(BackgroundExecutor executor, AlignedSchedule schedule, long periodMillis) {
+      this.executor = executor;
+      this.schedule = schedule;
+      this.periodMillis = periodMillis;
+    }
+
+    @Override
+    public void run() {
+      if (shutdown) {
+        return;
+      }
+      try {
+        report(periodMillis, schedule.boundary(due));
+      } finally {
+        // from the later of now and due such that running early does not report twice
+        scheduleNext(Math.max(clock.millis(), due));
+      }
+    }
+
+    void scheduleNext(long from) {
+      if (shutdown) {
+        return;
+      }
+      due = schedule.next(from);
+      scheduled(executor.schedule(this, Math.max(0, due - clock.millis()), TimeUnit.MILLISECONDS));
+    }
+  }
+
+  /**
+   * Schedule reporting with an interval that adapts to the activity of the metrics.
+   */
+  void scheduleAdaptive(BackgroundExecutor executor, AdaptiveInterval adaptive) {
+    this.adaptive = adaptive;
+    new AdaptiveReportRunner(executor, adaptive).scheduleNext();
+  }
+
+  /**
+   * Reports and then schedules itself after the current adaptive interval.
+   * <p>
+   * The period reported (and so the interval part of the packets) is the interval
+   * waited before the report.
+   * </p>
+   */
+  private class AdaptiveReportRunner implements Runnable {
+
+    final BackgroundExecutor executor;
+    final AdaptiveInterval adaptive;
+    long period;
+
+    AdaptiveReportRunner(BackgroundExecutor executor, AdaptiveInterval adaptive) {
+      this.executor = executor;
+      this.adaptive = adaptive;
+    }
+
+    @Override
+    public void run() {
+      if (shutdown) {
+        return;
+      }
+      try {
+        report(period);
+      } finally {
+        scheduleNext();
+      }
+    }
+
+    void scheduleNext() {
+      if (shutdown) {
+        return;
+      }
+      period = adaptive.intervalSecs();
+      scheduled(executor.schedule(this, period, TimeUnit.SECONDS));
+    }
   }
 
   private class ReportRunner implements Runnable {
 
-    final long period;
+    final long periodMillis;
 
-    public ReportRunner(long reportFreqSecs) {
-      this.period = reportFreqSecs;
+    ReportRunner(long periodMillis) {
+      this.periodMillis = periodMillis;
     }
 
     @Override
     public void run() {
-      report(period);
+      if (shutdown) {
+        return;
+      }
+      report(periodMillis, clock.millis());
     }
   }
 
+  /**
+   * Report the metrics collected since the last report.
+   * <p>
+   * With a pipeline this only collects a snapshot of the metrics and queues it for sending.
+   * </p>
+   */
   public void report(long period) {
+    report(TimeUnit.SECONDS.toMillis(period), clock.millis());
+  }
+
+  /**
+   * Report the metrics with the given period and timestamp in milliseconds.
+   */
+  private void report(long periodMillis, long epochMillis) {
     log.debug("reporting metrics ...");
-    long epochSecs = clock.millis() / 1000;
-    MetaData metaData = new MetaData(hostName, epochSecs, period);
+    final Snapshot snapshot;
     try {
-      connect(sender);
+      snapshot = snapshot(periodMillis, epochMillis);
+    } catch (Exception e) {
+      log.warn("Error trying to collect metrics", e);
+      return;
+    }
+    if (pipeline != null) {
+      pipeline.offer(snapshot);
+    } else {
+      send(snapshot);
+    }
+  }
+
+  /**
+   * Schedule replaying spooled datagrams every second such that the spool drains at
+   * the replay rate independent of the report period.
+   */
+  void scheduleReplay(BackgroundExecutor executor) {
+    if (sender.spooling()) {
+      scheduled(executor.scheduleWithFixedDelay(this::replay, 1, 1, TimeUnit.SECONDS));
+    }
+  }
 
-      BasicMetricVisitor basic = database.metaInfo().visitBasic();
-      for (MetaTimedMetric timedMetric : basic.timedMetrics()) {
-        reportMetric(metaData, timedMetric);
+  private synchronized void replay() {
+    if (!shutdown) {
+      sender.replay();
+    }
+  }
+
+  /**
+   * Stop the pipeline sending thread (if used), close the connection to Collectd and close the spool.
+   */
+  public void shutdown() {
+    shutdown = true;
+    cancelScheduled();
+    if (pipeline != null) {
+      pipeline.shutdown();
+    }
+    synchronized (this) {
+      try {
+        sender.close();
+      } catch (IOException e) {
+        log.warn("Error disconnecting from Collectd", e);
       }
-      for (MetaQueryMetric queryMetric : basic.queryMetrics()) {
-        reportQueryMetric(metaData, queryMetric);
+    }
+  }
+
+  /**
+   * Collect the metrics of all the databases into an immutable snapshot.
+   */
+  Snapshot snapshot(long period) {
+    return snapshot(TimeUnit.SECONDS.toMillis(period), clock.millis());
+  }
+
+  private Snapshot snapshot(long periodMillis, long epochMillis) {
+    List<Metric> metrics = new ArrayList<>();
+    for (Database database : databases) {
+      String instance = databases.size() > 1 ? database.name() : null;
+      collect(visit(database), instance, metrics);
+    }
+    for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+      MetricKey key = new MetricKey(MetricKind.HISTOGRAM, null, entry.getKey(), null);
+      metrics.add(entry.getValue().snapshot(key, percentiles, resetMetrics));
+    }
+    return Snapshot.ofMillis(epochMillis, periodMillis, metrics, !resetMetrics);
+  }
+
+  private BasicMetricVisitor visit(Database database) {
+    if (resetMetrics) {
+      return database.metaInfo().visitBasic();
+    }
+    BasicMetricVisitor visitor = new BasicMetricVisitor(false, true, true, true);
+    database.metaInfo().visitMetrics(visitor);
+    return visitor;
+  }
+
+  private void collect(BasicMetricVisitor basic, String instance, List<Metric> metrics) {
+    for (MetaTimedMetric timedMetric : basic.timedMetrics()) {
+      metrics.add(Metric.of(timedMetric, instance));
+    }
+    for (MetaQueryMetric queryMetric : basic.queryMetrics()) {
+      if (queryMetric.name() == null) {
+        if (log.isTraceEnabled()) {
+          log.trace("skip metric on type:{} count:{}", queryMetric.type(), queryMetric.count());
+        }
+      } else {
+        metrics.add(Metric.of(queryMetric, instance));
       }
-      for (MetaCountMetric countMetric : basic.countMetrics()) {
-        reportCountMetric(metaData, countMetric);
+    }
+    for (MetaCountMetric countMetric : basic.countMetrics()) {
+      metrics.add(Metric.of(countMetric, instance));
+    }
+  }
+
+  /**
+   * Encode and send the snapshot to Collectd.
+   */
+  synchronized void send(Snapshot snapshot) {
+    final long start = System.nanoTime();
+    final long startCryptoNanos = total(e -> e.writer.cryptoNanos());
+    final long startSendNanos = sender.totalNanos();
+    cycle++;
+    MetaData metaData = highResolution
+      ? MetaData.highResolution(hostName, snapshot.epochMillis(), snapshot.periodMillis())
+      : new MetaData(hostName, snapshot.epochSecs(), snapshot.period());
+    encoder.sendFailed = false;
+    pendingCommit.clear();
+    cycleTotal = 0;
+    cycleMax = 0;
+    itemCount = 0;
+    deferWrites = parallelChunkSize > 0 && snapshot.metrics().size() > parallelChunkSize;
+    try {
+      for (Metric metric : snapshot.metrics()) {
+        write(metaData, metric, snapshot.cumulative());
+      }
+      if (topQueries != null) {
+        writeTopQueries(metaData, snapshot.cumulative());
+      }
+      if (deferWrites) {
+        writeParallel(metaData);
+      }
+      if (statsTemplate != null) {
+        writeStats(metaData);
+      }
+      encoder.flush();
+      if (!encoder.sendFailed) {
+        for (Series series : pendingCommit) {
+          series.commit();
+        }
       }
 
     } catch (Exception e) {
       log.warn("Error trying to send metrics to Collectd", e);
-    } finally {
-      disconnect(sender);
     }
+    evictSeries();
+    if (adaptive != null && adaptive.update(cycleTotal, cycleMax, snapshot.period())) {
+      log.debug("burst of activity, reporting every {}s", adaptive.intervalSecs());
+    }
+    final long cryptoNanos = total(e -> e.writer.cryptoNanos());
+    final long sendNanos = sender.totalNanos() - startSendNanos;
+    // crypto time of parallel chunks is summed across threads and can exceed the elapsed time
+    final long encodeNanos = Math.max(0, System.nanoTime() - start - (cryptoNanos - startCryptoNanos) - sendNanos);
+    previousStats = stats;
+    stats = new ReporterStats(cycle, previousStats.metrics() + snapshot.metrics().size(), total(e -> e.writer.valueLists()),
+      sender.totalDatagrams(), sender.totalBytes(), previousStats.encodeNanos() + encodeNanos, cryptoNanos,
+      sender.totalNanos(), total(e -> e.metricFailures), sender.sendErrors(), sender.spooledDatagrams(),
+      sender.replayedDatagrams(), sender.skippedDatagrams(), sender.droppedDatagrams());
   }
 
-  private void reportCountMetric(MetaData metaData, MetaCountMetric countMetric) {
-    metaData.plugin(countMetric.name());
-    write(metaData.typeInstance("count"), countMetric.count());
+  /**
+   * Return the total of the counter across the encoder and the parallel chunk encoders.
+   */
+  private long total(ToLongFunction<Encoder> counter) {
+    long total = counter.applyAsLong(encoder);
+    for (Encoder chunk : chunkEncoders) {
+      total += counter.applyAsLong(chunk);
+    }
+    return total;
   }
 
-  private void reportQueryMetric(MetaData metaData, MetaQueryMetric metric) {
-    String name = metric.name();
-    if (name == null) {
-      if (log.isTraceEnabled()) {
-        log.debug("skip metric on type:{} count:{}", metric.type(), metric.count());
+  /**
+   * Encode the deferred metrics in parallel chunks and send the datagrams in chunk order.
+   * <p>
+   * The series state has already been updated serially such that the chunks only read
+   * their own series (adding templates as required).
+   * </p>
+   */
+  private void writeParallel(MetaData metaData) {
+    final int chunks = (itemCount + parallelChunkSize - 1) / parallelChunkSize;
+    while (chunkEncoders.size() < chunks) {
+      final CollectingTransport transport = new CollectingTransport();
+      chunkEncoders.add(new Encoder(writers.apply(new Sender(transport)), transport));
+    }
+    final List<CompletableFuture<Void>> futures = new ArrayList<>(chunks);
+    for (int i = 0; i < chunks; i++) {
+      final Encoder chunk = chunkEncoders.get(i);
+      final int from = i * parallelChunkSize;
+      final int to = Math.min(itemCount, from + parallelChunkSize);
+      futures.add(CompletableFuture.runAsync(() -> chunk.write(metaData, items, from, to), parallelExecutor));
+    }
+    for (int i = 0; i < chunks; i++) {
+      futures.get(i).join();
+      encoder.send(chunkEncoders.get(i).transport);
+    }
+  }
+
+  /**
+   * Return the totals of the work done by this reporter.
+   */
+  public ReporterStats stats() {
+    return stats;
+  }
+
+  /**
+   * Write the reporter stats as at the end of the previous report.
+   * <p>
+   * With {@link ValueMode#GAUGE} these are the values of the previous report and with
+   * {@link ValueMode#DERIVE} the cumulative values.
+   * </p>
+   */
+  private void writeStats(MetaData metaData) {
+    stats.values(statsValues);
+    if (valueMode == ValueMode.GAUGE) {
+      previousStats.values(previousStatsValues);
+      for (int i = 0; i < statsValues.length; i++) {
+        statsValues[i] -= previousStatsValues[i];
       }
+    }
+    encoder.write(metaData, statsTemplate, statsValues);
+  }
+
+  /**
+   * Release the templates of metrics that have not been reported recently, removing
+   * their series unless they hold cumulative values (which are removed later).
+   */
+  private void evictSeries() {
+    seriesMap.values().removeIf(series -> {
+      final long idle = cycle - series.lastSeen();
+      return idle > evictAfterCycles && (series.evict() || idle > retainCumulativeCycles);
+    });
+  }
+
+  /**
+   * Return the number of metric series held.
+   */
+  int seriesCount() {
+    return seriesMap.size();
+  }
+
+  private String pluginName(MetricKey key) {
+    if (key.kind() == MetricKind.QUERY && key.type() == null) {
+      return prefixQuery + key.name();
+    }
+    if (key.kind() == MetricKind.QUERY) {
+      return prefixQuery + key.type().getSimpleName() + "." + key.name();
+    }
+    return key.name();
+  }
+
+  /**
+   * Write the metric which holds either interval or cumulative values.
+   */
+  private void write(MetaData metaData, Metric metric, boolean cumulative) {
+    final Series series = series(metric.key());
+    if (filter != null && !series.include(filter, metric.key())) {
+      return;
+    }
+    final Metric interval = interval(metric, series, cumulative);
+    if (metric.kind() != MetricKind.COUNT) {
+      cycleTotal += interval.total();
+      cycleMax = Math.max(cycleMax, interval.max());
+    }
+    if (topQueries != null && metric.kind() == MetricKind.QUERY) {
+      topQueries.offer(metric, interval, series, cumulative);
     } else {
-      metaData.plugin(prefixQuery + metric.type().getSimpleName() + "." + name);
-      write(metaData.typeInstance("count"), metric.count());
-      write(metaData.typeInstance("max"), metric.max());
-      write(metaData.typeInstance("mean"), metric.mean());
-      write(metaData.typeInstance("total"), metric.total());
+      write(metaData, metric, interval, series, cumulative);
     }
   }
 
-  private void reportMetric(MetaData metaData, MetaTimedMetric timedMetric) {
-    metaData.plugin(timedMetric.name());
-    write(metaData.typeInstance("count"), timedMetric.count());
-    write(metaData.typeInstance("max"), timedMetric.max());
-    write(metaData.typeInstance("mean"), timedMetric.mean());
-    write(metaData.typeInstance("total"), timedMetric.total());
+  /**
+   * Write the top queries and the other queries rolled up.
+   */
+  private void writeTopQueries(MetaData metaData, boolean cumulative) {
+    TopQueries.Entry entry;
+    while ((entry = topQueries.poll()) != null) {
+      write(metaData, entry.metric, entry.interval, entry.series, cumulative);
+    }
+    for (Metric other : topQueries.others()) {
+      // the other values are always for the interval
+      final Series series = series(other.key());
+      write(metaData, other, interval(other, series, false), series, false);
+    }
+    topQueries.clear();
   }
 
-  private void connect(Sender sender) throws IOException {
-    if (!sender.isConnected()) {
-      sender.connect();
+  private Series series(MetricKey key) {
+    final Series series = seriesMap.computeIfAbsent(key, k -> new Series());
+    series.seen(cycle);
+    return series;
+  }
+
+  /**
+   * Return the interval values of the metric updating the series.
+   */
+  private Metric interval(Metric metric, Series series, boolean cumulative) {
+    if (cumulative) {
+      pendingCommit.add(series);
+      return series.interval(metric);
     }
+    if (valueMode == ValueMode.DERIVE) {
+      series.accumulate(metric);
+    }
+    return metric;
   }
 
-  private void disconnect(Sender sender) {
-    try {
-      sender.disconnect();
-    } catch (Exception e) {
-      log.warn("Error disconnecting from Collectd", e);
+  private void write(MetaData metaData, Metric metric, Metric interval, Series series, boolean cumulative) {
+    if (idleHeartbeatCycles > 0 && interval.count() == 0 && !series.heartbeatDue(cycle, idleHeartbeatCycles)) {
+      return;
+    }
+    series.sent(cycle);
+    if (deferWrites) {
+      defer(metric, interval, series, cumulative);
+    } else {
+      encoder.write(metaData, metric, interval, series, cumulative);
     }
   }
 
-  private void write(MetaData metaData, Number... values) {
-    try {
-      writer.write(metaData, values);
-    } catch (RuntimeException e) {
-      log.warn("Failed to process metric '" + metaData.getPlugin() + "': " + e.getMessage());
-    } catch (IOException e) {
-      log.error("Failed to send metric to collectd", e);
+  /**
+   * Add the metric to those to be encoded in parallel (reusing the items of earlier reports).
+   */
+  private void defer(Metric metric, Metric interval, Series series, boolean cumulative) {
+    if (itemCount == items.size()) {
+      items.add(new Item());
+    }
+    items.get(itemCount++).set(metric, interval, series, cumulative);
+  }
+
+  /**
+   * Compile the template for the metric series.
+   * <p>
+   * With {@link ValueMode#GAUGE} this is a gauge value list per type instance and with
+   * {@link ValueMode#DERIVE} a single value list without a type instance.
+   * </p>
+   */
+  private PacketTemplate compile(MetricKey key) {
+    String plugin = pluginName(key);
+    String instance = key.instance();
+    if (valueMode == ValueMode.DERIVE) {
+      if (key.kind() == MetricKind.COUNT) {
+        return PacketTemplate.compile(plugin, instance, TYPE_DERIVE, NO_TYPE_INSTANCE, DERIVE_COUNT_SOURCES);
+      }
+      return PacketTemplate.compile(plugin, instance, TYPE_TIMED, NO_TYPE_INSTANCE, DERIVE_TIMED_SOURCES);
+    }
+    if (key.kind() == MetricKind.COUNT) {
+      return PacketTemplate.compile(plugin, instance, TYPE_GAUGE, COUNT_TYPE_INSTANCES, GAUGE_COUNT_SOURCES);
     }
+    return PacketTemplate.compile(plugin, instance, TYPE_GAUGE, TIMED_TYPE_INSTANCES, GAUGE_TIMED_SOURCES);
   }
 
+  /**
+   * A metric deferred to be encoded in a parallel chunk.
+   */
+  private static final class Item {
+
+    Metric metric;
+    Metric interval;
+    Series series;
+    boolean cumulative;
+
+    void set(Metric metric, Metric interval, Series series, boolean cumulative) {
+      this.metric = metric;
+      this.interval = interval;
+      this.series = series;
+      this.cumulative = cumulative;
+    }
+  }
+
+  /**
+   * Encodes metrics with a packet writer and its own value arrays and error counts.
+   * <p>
+   * The reporter has one encoder writing to the sender and, with parallel encoding,
+   * one per chunk writing to a collecting transport.
+   * </p>
+   */
+  private final class Encoder {
+
+    final PacketWriter writer;
+    final CollectingTransport transport;
+    final double[] countValues = new double[1];
+    final double[] timedValues = new double[4];
+    final double[] percentileValues = new double[percentiles.length];
+    long metricFailures;
+    boolean sendFailed;
+
+    Encoder(PacketWriter writer, CollectingTransport transport) {
+      this.writer = writer;
+      this.transport = transport;
+    }
+
+    /**
+     * Encode a chunk of the deferred items into the collecting transport.
+     */
+    void write(MetaData metaData, List<Item> items, int from, int to) {
+      transport.clear();
+      for (int i = from; i < to; i++) {
+        final Item item = items.get(i);
+        write(metaData, item.metric, item.interval, item.series, item.cumulative);
+      }
+      flush();
+    }
+
+    void write(MetaData metaData, Metric metric, Metric interval, Series series, boolean cumulative) {
+      PacketTemplate template = series.template();
+      if (template == null) {
+        template = compile(metric.key());
+        series.template(template);
+      }
+      write(metaData, template, values(metric, interval, series, cumulative));
+      if (metric.percentiles() != null) {
+        writePercentiles(metaData, metric, series);
+      }
+    }
+
+    /**
+     * Write the percentiles of a histogram as gauges with a type instance per percentile.
+     */
+    private void writePercentiles(MetaData metaData, Metric metric, Series series) {
+      PacketTemplate template = series.percentileTemplate();
+      if (template == null) {
+        template = PacketTemplate.compile(pluginName(metric.key()), metric.key().instance(), TYPE_GAUGE, percentileNames, percentileSources);
+        series.percentileTemplate(template);
+      }
+      final long[] percentiles = metric.percentiles();
+      for (int i = 0; i < percentiles.length; i++) {
+        percentileValues[i] = percentiles[i];
+      }
+      write(metaData, template, percentileValues);
+    }
+
+    /**
+     * Return the values to patch into the template of the metric.
+     */
+    private double[] values(Metric metric, Metric interval, Series series, boolean cumulative) {
+      if (valueMode == ValueMode.DERIVE) {
+        // count and total are sent as cumulative values
+        long count = series.deriveCount(cumulative ? metric.count() : series.count());
+        if (metric.kind() == MetricKind.COUNT) {
+          countValues[0] = count;
+          return countValues;
+        }
+        timedValues[0] = count;
+        timedValues[1] = series.deriveTotal(cumulative ? metric.total() : series.total());
+        timedValues[2] = interval.max();
+        timedValues[3] = interval.mean();
+        return timedValues;
+      }
+      if (metric.kind() == MetricKind.COUNT) {
+        countValues[0] = interval.count();
+        return countValues;
+      }
+      timedValues[0] = interval.count();
+      timedValues[1] = interval.max();
+      timedValues[2] = interval.mean();
+      timedValues[3] = interval.total();
+      return timedValues;
+    }
+
+    void write(MetaData metaData, PacketTemplate template, double[] values) {
+      try {
+        writer.write(metaData, template, values);
+      } catch (RuntimeException e) {
+        metricFailures++;
+        log.warn("Failed to process metric '" + template.plugin() + "': " + e.getMessage());
+      } catch (IOException e) {
+        failed(e);
+      }
+    }
+
+    /**
+     * Send the datagrams encoded by a parallel chunk.
+     */
+    void send(CollectingTransport chunk) {
+      try {
+        sender.send(chunk.datagrams(), chunk.count());
+      } catch (IOException e) {
+        failed(e);
+      }
+    }
+
+    void flush() {
+      try {
+        writer.flush();
+      } catch (IOException e) {
+        failed(e);
+      }
+    }
+
+    /**
+     * Record the failed send.
+     * <p>
+     * The error is counted by the sender (such that errors are also counted when the
+     * datagrams are spooled) and only logged at debug as the circuit breaker logs each
+     * change of state once.
+     * </p>
+     */
+    private void failed(IOException e) {
+      sendFailed = true;
+      if (!(e instanceof CircuitOpenException)) {
+        log.debug("Failed to send metrics to collectd [{}]", e.getMessage());
+      }
+    }
+  }
 }
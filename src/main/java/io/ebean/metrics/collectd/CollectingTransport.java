@@ -0,0 +1,75 @@
+package io.ebean.metrics.collectd;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Transport that holds copies of the datagrams in memory to be sent later.
+ * <p>
+ * Used when encoding chunks of a report in parallel such that each chunk produces its
+ * datagrams independently and they are then sent in chunk order. The buffers are reused
+ * between reports.
+ * </p>
+ */
+final class CollectingTransport implements Transport {
+
+  private ByteBuffer[] datagrams = new ByteBuffer[16];
+  private int count;
+
+  @Override
+  public void connect() {
+    // always connected
+  }
+
+  @Override
+  public boolean isConnected() {
+    return true;
+  }
+
+  @Override
+  public void send(ByteBuffer datagram) {
+    if (count == datagrams.length) {
+      datagrams = Arrays.copyOf(datagrams, count * 2);
+    }
+    ByteBuffer copy = datagrams[count];
+    if (copy == null || copy.capacity() < datagram.remaining()) {
+      copy = ByteBuffer.allocate(Math.max(datagram.capacity(), datagram.remaining()));
+      datagrams[count] = copy;
+    }
+    copy.clear();
+    copy.put(datagram);
+    copy.flip();
+    count++;
+  }
+
+  @Override
+  public void flush() {
+    // nothing buffered beyond the datagrams held
+  }
+
+  @Override
+  public void disconnect() {
+    // nothing to close
+  }
+
+  /**
+   * Return the datagrams held (the first {@link #count()} of them).
+   */
+  ByteBuffer[] datagrams() {
+    return datagrams;
+  }
+
+  /**
+   * Return the number of datagrams held.
+   */
+  int count() {
+    return count;
+  }
+
+  /**
+   * Discard the datagrams held keeping the buffers for reuse.
+   */
+  void clear() {
+    count = 0;
+  }
+}
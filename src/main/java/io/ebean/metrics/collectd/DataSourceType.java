@@ -0,0 +1,22 @@
+package io.ebean.metrics.collectd;
+
+/**
+ * Collectd data source types with their binary protocol codes.
+ */
+enum DataSourceType {
+
+  COUNTER(0),
+  GAUGE(1),
+  DERIVE(2),
+  ABSOLUTE(3);
+
+  private final byte code;
+
+  DataSourceType(int code) {
+    this.code = (byte) code;
+  }
+
+  byte code() {
+    return code;
+  }
+}
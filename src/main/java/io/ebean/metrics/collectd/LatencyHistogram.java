@@ -0,0 +1,157 @@
+package io.ebean.metrics.collectd;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies in microseconds reported with percentiles.
+ * <p>
+ * Values are counted in log-linear buckets, 16 linear buckets for each power of 2 giving
+ * a relative error of at most 1/16. Each stripe is a primitive array of bucket counts
+ * followed by the count, total and max, with the stripe chosen by the recording thread
+ * such that concurrent threads rarely contend.
+ * </p>
+ * <pre>{@code
+ *
+ *   LatencyHistogram histogram = reporter.histogram("app.checkout");
+ *   ...
+ *   long start = System.nanoTime();
+ *   checkout(order);
+ *   histogram.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+ *
+ * }</pre>
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BITS = 4;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+
+  /**
+   * Number of buckets covering values up to Long.MAX_VALUE.
+   */
+  static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+  private static final int COUNT = BUCKETS;
+  private static final int TOTAL = BUCKETS + 1;
+  private static final int MAX = BUCKETS + 2;
+
+  private final AtomicLongArray[] stripes;
+  private final int mask;
+
+  LatencyHistogram() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  LatencyHistogram(int concurrency) {
+    final int stripeCount = concurrency <= 1 ? 1 : Integer.highestOneBit(concurrency - 1) << 1;
+    this.stripes = new AtomicLongArray[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new AtomicLongArray(BUCKETS + 3);
+    }
+    this.mask = stripeCount - 1;
+  }
+
+  /**
+   * Record a latency in microseconds.
+   */
+  public void record(long micros) {
+    final long value = Math.max(0, micros);
+    final AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & mask];
+    stripe.incrementAndGet(index(value));
+    stripe.incrementAndGet(COUNT);
+    stripe.addAndGet(TOTAL, value);
+    long max = stripe.get(MAX);
+    while (value > max && !stripe.compareAndSet(MAX, max, value)) {
+      max = stripe.get(MAX);
+    }
+  }
+
+  /**
+   * Record a latency in the given unit.
+   */
+  public void record(long duration, TimeUnit unit) {
+    record(unit.toMicros(duration));
+  }
+
+  /**
+   * Return the metric for the interval since the last snapshot.
+   * <p>
+   * The buckets are always reset such that the percentiles are for the interval.
+   * The count, total and max are only reset when not reported as cumulative values.
+   * </p>
+   *
+   * @param key         the key of the metric
+   * @param percentiles the percentiles to compute (0.5, 0.99 etc)
+   * @param reset       true to reset the count, total and max
+   */
+  Metric snapshot(MetricKey key, double[] percentiles, boolean reset) {
+    final long[] buckets = new long[BUCKETS];
+    long bucketCount = 0;
+    long count = 0;
+    long total = 0;
+    long max = 0;
+    for (AtomicLongArray stripe : stripes) {
+      for (int i = 0; i < BUCKETS; i++) {
+        if (stripe.get(i) != 0) {
+          final long bucket = stripe.getAndSet(i, 0);
+          buckets[i] += bucket;
+          bucketCount += bucket;
+        }
+      }
+      if (reset) {
+        count += stripe.getAndSet(COUNT, 0);
+        total += stripe.getAndSet(TOTAL, 0);
+        max = Math.max(max, stripe.getAndSet(MAX, 0));
+      } else {
+        count += stripe.get(COUNT);
+        total += stripe.get(TOTAL);
+        max = Math.max(max, stripe.get(MAX));
+      }
+    }
+    final long mean = count == 0 ? 0 : total / count;
+    return new Metric(key, count, total, max, mean, percentiles(buckets, bucketCount, max, percentiles));
+  }
+
+  private static long[] percentiles(long[] buckets, long count, long max, double[] percentiles) {
+    final long[] values = new long[percentiles.length];
+    if (count == 0) {
+      return values;
+    }
+    for (int p = 0; p < percentiles.length; p++) {
+      final long rank = Math.max(1, (long) Math.ceil(percentiles[p] * count));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += buckets[i];
+        if (seen >= rank) {
+          values[p] = Math.min(upperBound(i), max);
+          break;
+        }
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Return the bucket index of the value.
+   */
+  static int index(long value) {
+    if (value < SUB_COUNT) {
+      return (int) value;
+    }
+    final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    return (shift + 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+  }
+
+  /**
+   * Return the largest value counted in the bucket.
+   */
+  static long upperBound(int index) {
+    if (index < SUB_COUNT) {
+      return index;
+    }
+    final int shift = index / SUB_COUNT - 1;
+    final long sub = index % SUB_COUNT + SUB_COUNT;
+    final long upper = ((sub + 1) << shift) - 1;
+    return upper < 0 ? Long.MAX_VALUE : upper;
+  }
+}
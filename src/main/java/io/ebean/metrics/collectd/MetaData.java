@@ -7,29 +7,62 @@ class MetaData {
     private final String host;
     private final long timestamp;
     private final long period;
+    private final boolean highResolution;
     private String plugin;
     private String pluginInstance;
     private String type = COLLECTD_TYPE_GAUGE;
     private String typeInstance;
 
     MetaData(String host, long epochSecs, long period) {
-        this.host = host;
-        this.timestamp = epochSecs;
+        this(host, epochSecs, period, false);
+    }
+
+    private MetaData(String host, long timestamp, long period, boolean highResolution) {
+        this.host = (host == null) ? null : Sanitize.instanceName(host);
+        this.timestamp = timestamp;
         this.period = period;
+        this.highResolution = highResolution;
+    }
+
+    /**
+     * Return meta data with the time and interval in high resolution (2^-30 second) units.
+     */
+    static MetaData highResolution(String host, long epochMillis, long periodMillis) {
+        return new MetaData(host, toHighResolution(epochMillis), toHighResolution(periodMillis), true);
+    }
+
+    /**
+     * Convert milliseconds to units of 2^-30 seconds (without overflowing for epoch times).
+     */
+    static long toHighResolution(long millis) {
+        return ((millis / 1000) << 30) + (((millis % 1000) << 30) / 1000);
     }
 
     String getHost() {
         return host;
     }
 
+    /**
+     * Return the timestamp in seconds (or 2^-30 seconds when high resolution).
+     */
     long getTimestamp() {
         return timestamp;
     }
 
+    /**
+     * Return the period in seconds (or 2^-30 seconds when high resolution).
+     */
     long getPeriod() {
         return period;
     }
 
+    /**
+     * Return true if the time and period are sent as the high resolution parts.
+     */
+    boolean isHighResolution() {
+        return highResolution;
+    }
+
     String getPlugin() {
         return plugin;
     }
@@ -47,12 +80,12 @@ class MetaData {
     }
 
     MetaData plugin(String name) {
-        plugin = name;
+        plugin = (name == null) ? null : Sanitize.name(name);
         return this;
     }
 
     MetaData pluginInstance(String name) {
-        pluginInstance = Sanitize.instanceName(name);
+        pluginInstance = (name == null) ? null : Sanitize.instanceName(name);
         return this;
     }
 
@@ -62,7 +95,7 @@ class MetaData {
     }
 
     MetaData typeInstance(String name) {
-        typeInstance = name;
+        typeInstance = (name == null) ? null : Sanitize.instanceName(name);
         return this;
     }
 }
@@ -0,0 +1,98 @@
+package io.ebean.metrics.collectd;
+
+import io.ebean.meta.MetaCountMetric;
+import io.ebean.meta.MetaQueryMetric;
+import io.ebean.meta.MetaTimedMetric;
+
+/**
+ * Immutable values of a metric collected for a report.
+ */
+final class Metric {
+
+  private final MetricKey key;
+  private final long count;
+  private final long total;
+  private final long max;
+  private final long mean;
+  private final long[] percentiles;
+
+  Metric(MetricKey key, long count, long total, long max, long mean) {
+    this(key, count, total, max, mean, null);
+  }
+
+  Metric(MetricKey key, long count, long total, long max, long mean, long[] percentiles) {
+    this.key = key;
+    this.count = count;
+    this.total = total;
+    this.max = max;
+    this.mean = mean;
+    this.percentiles = percentiles;
+  }
+
+  static Metric of(MetaTimedMetric metric, String instance) {
+    return new Metric(new MetricKey(MetricKind.TIMED, null, metric.name(), instance), metric.count(), metric.total(), metric.max(), metric.mean());
+  }
+
+  static Metric of(MetaQueryMetric metric, String instance) {
+    return new Metric(new MetricKey(MetricKind.QUERY, metric.type(), metric.name(), instance), metric.count(), metric.total(), metric.max(), metric.mean());
+  }
+
+  static Metric of(MetaCountMetric metric, String instance) {
+    return new Metric(new MetricKey(MetricKind.COUNT, null, metric.name(), instance), metric.count(), 0, 0, 0);
+  }
+
+  MetricKey key() {
+    return key;
+  }
+
+  MetricKind kind() {
+    return key.kind();
+  }
+
+  long count() {
+    return count;
+  }
+
+  long total() {
+    return total;
+  }
+
+  long max() {
+    return max;
+  }
+
+  long mean() {
+    return mean;
+  }
+
+  /**
+   * Return the percentile values of a histogram (null for other metrics).
+   */
+  long[] percentiles() {
+    return percentiles;
+  }
+
+  /**
+   * Return the metric combining the values of this and a later interval.
+   * <p>
+   * Percentiles can not be combined exactly so the larger of each is taken.
+   * </p>
+   */
+  Metric merge(Metric other) {
+    final long mergedCount = count + other.count;
+    final long mergedTotal = total + other.total;
+    final long mergedMean = mergedCount == 0 ? 0 : mergedTotal / mergedCount;
+    return new Metric(key, mergedCount, mergedTotal, Math.max(max, other.max), mergedMean, mergePercentiles(other.percentiles));
+  }
+
+  private long[] mergePercentiles(long[] other) {
+    if (percentiles == null || other == null) {
+      return other;
+    }
+    final long[] merged = new long[percentiles.length];
+    for (int i = 0; i < merged.length; i++) {
+      merged[i] = Math.max(percentiles[i], other[i]);
+    }
+    return merged;
+  }
+}
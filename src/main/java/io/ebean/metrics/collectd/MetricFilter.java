@@ -0,0 +1,51 @@
+package io.ebean.metrics.collectd;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Include and exclude rules for metrics by name, query bean type and kind.
+ * <p>
+ * A metric is reported when it is not excluded by any rule and, for each kind of rule
+ * with includes, it is included. The type rules only apply to query metrics.
+ * </p>
+ */
+final class MetricFilter {
+
+  private final NameMatcher includeNames;
+  private final NameMatcher excludeNames;
+  private final Set<Class<?>> includeTypes;
+  private final Set<Class<?>> excludeTypes;
+  private final Set<MetricKind> includeKinds;
+  private final Set<MetricKind> excludeKinds;
+
+  MetricFilter(List<String> includeNames, List<String> excludeNames, Set<Class<?>> includeTypes,
+               Set<Class<?>> excludeTypes, Set<MetricKind> includeKinds, Set<MetricKind> excludeKinds) {
+    this.includeNames = NameMatcher.of(includeNames);
+    this.excludeNames = NameMatcher.of(excludeNames);
+    this.includeTypes = new HashSet<>(includeTypes);
+    this.excludeTypes = new HashSet<>(excludeTypes);
+    this.includeKinds = includeKinds.isEmpty() ? EnumSet.allOf(MetricKind.class) : EnumSet.copyOf(includeKinds);
+    this.excludeKinds = excludeKinds.isEmpty() ? EnumSet.noneOf(MetricKind.class) : EnumSet.copyOf(excludeKinds);
+  }
+
+  /**
+   * Return true if the metric should be reported.
+   */
+  boolean include(MetricKey key) {
+    if (!includeKinds.contains(key.kind()) || excludeKinds.contains(key.kind())) {
+      return false;
+    }
+    final Class<?> type = key.type();
+    if (type != null && (excludeTypes.contains(type) || (!includeTypes.isEmpty() && !includeTypes.contains(type)))) {
+      return false;
+    }
+    final String name = key.name();
+    if (excludeNames != null && excludeNames.matches(name)) {
+      return false;
+    }
+    return includeNames == null || includeNames.matches(name);
+  }
+}
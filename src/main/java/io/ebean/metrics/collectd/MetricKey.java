@@ -0,0 +1,67 @@
+package io.ebean.metrics.collectd;
+
+import java.util.Objects;
+
+/**
+ * Identifies a metric series across reports.
+ */
+final class MetricKey {
+
+  private final MetricKind kind;
+  private final Class<?> type;
+  private final String name;
+  private final String instance;
+  private final int hash;
+
+  MetricKey(MetricKind kind, Class<?> type, String name, String instance) {
+    this.kind = kind;
+    this.type = type;
+    this.name = name;
+    this.instance = instance;
+    this.hash = Objects.hash(kind, type, name, instance);
+  }
+
+  MetricKind kind() {
+    return kind;
+  }
+
+  /**
+   * Return the entity bean type for query metrics (null for other kinds).
+   */
+  Class<?> type() {
+    return type;
+  }
+
+  String name() {
+    return name;
+  }
+
+  /**
+   * Return the plugin instance (the database name when reporting multiple databases).
+   */
+  String instance() {
+    return instance;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof MetricKey)) {
+      return false;
+    }
+    MetricKey other = (MetricKey) o;
+    return kind == other.kind && type == other.type && name.equals(other.name) && Objects.equals(instance, other.instance);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return kind + ":" + (instance == null ? "" : instance + "/") + (type == null ? "" : type.getSimpleName() + ".") + name;
+  }
+}
@@ -0,0 +1,27 @@
+package io.ebean.metrics.collectd;
+
+/**
+ * The kind of Ebean metric being reported.
+ */
+public enum MetricKind {
+
+  /**
+   * Timed metrics such as transaction and L2 cache timings.
+   */
+  TIMED,
+
+  /**
+   * Query execution metrics.
+   */
+  QUERY,
+
+  /**
+   * Count metrics.
+   */
+  COUNT,
+
+  /**
+   * Latency histograms recorded via {@link CollectdReporter#histogram(String)}.
+   */
+  HISTOGRAM
+}
@@ -0,0 +1,141 @@
+package io.ebean.metrics.collectd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches names against glob and regex patterns compiled once.
+ * <p>
+ * Globs that are an exact name or a prefix followed by a trailing {@code *} (the common case
+ * such as {@code txn.*}) go into a prefix trie. Other globs and patterns starting with
+ * {@code regex:} are combined into a single compiled regex used when the trie does not match.
+ * </p>
+ */
+final class NameMatcher {
+
+  static final String REGEX_PREFIX = "regex:";
+
+  private final Node root = new Node();
+  private final Pattern pattern;
+
+  private NameMatcher(List<String> patterns) {
+    final List<String> regexes = new ArrayList<>();
+    for (String p : patterns) {
+      if (p.startsWith(REGEX_PREFIX)) {
+        regexes.add(p.substring(REGEX_PREFIX.length()));
+      } else if (isPrefixGlob(p)) {
+        root.add(p.substring(0, p.length() - 1), 0, true);
+      } else if (isLiteral(p)) {
+        root.add(p, 0, false);
+      } else {
+        regexes.add(globToRegex(p));
+      }
+    }
+    this.pattern = regexes.isEmpty() ? null : Pattern.compile("(?:" + String.join(")|(?:", regexes) + ")");
+  }
+
+  /**
+   * Compile the glob and regex patterns (returning null when there are none).
+   */
+  static NameMatcher of(List<String> patterns) {
+    return patterns.isEmpty() ? null : new NameMatcher(patterns);
+  }
+
+  static NameMatcher of(String... patterns) {
+    return of(Arrays.asList(patterns));
+  }
+
+  /**
+   * Return true if the name matches any of the patterns.
+   */
+  boolean matches(String name) {
+    return root.matches(name, 0) || (pattern != null && pattern.matcher(name).matches());
+  }
+
+  private static boolean isLiteral(String glob) {
+    return glob.indexOf('*') == -1 && glob.indexOf('?') == -1;
+  }
+
+  private static boolean isPrefixGlob(String glob) {
+    return glob.endsWith("*") && isLiteral(glob.substring(0, glob.length() - 1));
+  }
+
+  /**
+   * Return the regex of a glob where {@code *} matches any chars and {@code ?} a single char.
+   */
+  static String globToRegex(String glob) {
+    final StringBuilder regex = new StringBuilder(glob.length() + 8);
+    int literalStart = 0;
+    for (int i = 0; i < glob.length(); i++) {
+      final char c = glob.charAt(i);
+      if (c == '*' || c == '?') {
+        if (i > literalStart) {
+          regex.append(Pattern.quote(glob.substring(literalStart, i)));
+        }
+        regex.append(c == '*' ? ".*" : ".");
+        literalStart = i + 1;
+      }
+    }
+    if (literalStart < glob.length()) {
+      regex.append(Pattern.quote(glob.substring(literalStart)));
+    }
+    return regex.toString();
+  }
+
+  /**
+   * Trie node with children held in parallel arrays.
+   */
+  private static final class Node {
+
+    private char[] chars = new char[0];
+    private Node[] children = new Node[0];
+    private boolean exact;
+    private boolean prefix;
+
+    void add(String value, int index, boolean asPrefix) {
+      if (index == value.length()) {
+        if (asPrefix) {
+          prefix = true;
+        } else {
+          exact = true;
+        }
+        return;
+      }
+      final char c = value.charAt(index);
+      Node child = child(c);
+      if (child == null) {
+        child = new Node();
+        chars = Arrays.copyOf(chars, chars.length + 1);
+        children = Arrays.copyOf(children, children.length + 1);
+        chars[chars.length - 1] = c;
+        children[children.length - 1] = child;
+      }
+      child.add(value, index + 1, asPrefix);
+    }
+
+    boolean matches(String name, int index) {
+      Node node = this;
+      for (int i = index; i < name.length(); i++) {
+        if (node.prefix) {
+          return true;
+        }
+        node = node.child(name.charAt(i));
+        if (node == null) {
+          return false;
+        }
+      }
+      return node.prefix || node.exact;
+    }
+
+    private Node child(char c) {
+      for (int i = 0; i < chars.length; i++) {
+        if (chars[i] == c) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+  }
+}
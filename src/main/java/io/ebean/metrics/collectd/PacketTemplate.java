@@ -0,0 +1,171 @@
+package io.ebean.metrics.collectd;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pre-encoded parts of the value lists for one metric series.
+ * <p>
+ * Holds the encoded plugin, plugin instance and type parts followed by a body of type
+ * instance and values parts with zeroed value slots. Writing a metric is then copying
+ * these bytes and patching the values into the slots.
+ * </p>
+ * <pre>
+ * [plugin][plugin instance][type] [type instance][values] [type instance][values] ...
+ * </pre>
+ */
+final class PacketTemplate {
+
+  private final String plugin;
+  private final String pluginInstance;
+  private final String type;
+  private final String firstTypeInstance;
+  private final String lastTypeInstance;
+  private final byte[] bytes;
+  private final int instanceOffset;
+  private final int typeOffset;
+  private final int bodyOffset;
+  private final int[] slotOffsets;
+  private final DataSourceType[] slotTypes;
+  private final int valueLists;
+
+  private PacketTemplate(String plugin, String pluginInstance, String type, String firstTypeInstance, String lastTypeInstance,
+                         byte[] bytes, int instanceOffset, int typeOffset, int bodyOffset, int[] slotOffsets, DataSourceType[] slotTypes,
+                         int valueLists) {
+    this.plugin = plugin;
+    this.pluginInstance = pluginInstance;
+    this.type = type;
+    this.firstTypeInstance = firstTypeInstance;
+    this.lastTypeInstance = lastTypeInstance;
+    this.bytes = bytes;
+    this.instanceOffset = instanceOffset;
+    this.typeOffset = typeOffset;
+    this.bodyOffset = bodyOffset;
+    this.slotOffsets = slotOffsets;
+    this.slotTypes = slotTypes;
+    this.valueLists = valueLists;
+  }
+
+  /**
+   * Compile a template with one value list per type instance.
+   * <p>
+   * All the names are sanitized.
+   * </p>
+   *
+   * @param typeInstances the type instance of each value list (a single null entry for no type instance)
+   * @param types         the data source types of each value list
+   */
+  static PacketTemplate compile(String rawPlugin, String rawPluginInstance, String rawType, String[] rawTypeInstances, DataSourceType[][] types) {
+    final String plugin = Sanitize.name(rawPlugin);
+    final String pluginInstance = rawPluginInstance == null ? null : Sanitize.instanceName(rawPluginInstance);
+    final String type = Sanitize.name(rawType);
+    final String[] typeInstances = new String[rawTypeInstances.length];
+    for (int i = 0; i < typeInstances.length; i++) {
+      typeInstances[i] = rawTypeInstances[i] == null ? null : Sanitize.instanceName(rawTypeInstances[i]);
+    }
+    int slotCount = 0;
+    for (DataSourceType[] listTypes : types) {
+      slotCount += listTypes.length;
+    }
+    final int[] slotOffsets = new int[slotCount];
+    final DataSourceType[] slotTypes = new DataSourceType[slotCount];
+
+    final ByteBuffer buffer = ByteBuffer.allocate(PacketWriter.MAX_TEMPLATE_SIZE);
+    PacketWriter.writeString(buffer, PacketWriter.TYPE_PLUGIN, plugin);
+    final int instanceOffset = buffer.position();
+    if (pluginInstance != null) {
+      PacketWriter.writeString(buffer, PacketWriter.TYPE_PLUGIN_INSTANCE, pluginInstance);
+    }
+    final int typeOffset = buffer.position();
+    PacketWriter.writeString(buffer, PacketWriter.TYPE_TYPE, type);
+    final int bodyOffset = buffer.position();
+
+    int slot = 0;
+    for (int i = 0; i < typeInstances.length; i++) {
+      if (i > 0 || typeInstances[0] != null) {
+        PacketWriter.writeString(buffer, PacketWriter.TYPE_TYPE_INSTANCE, typeInstances[i]);
+      }
+      final DataSourceType[] listTypes = types[i];
+      PacketWriter.writeValuesHeader(buffer, listTypes);
+      for (DataSourceType listType : listTypes) {
+        slotOffsets[slot] = buffer.position();
+        slotTypes[slot++] = listType;
+        buffer.putLong(0);
+      }
+    }
+    final byte[] bytes = new byte[buffer.position()];
+    buffer.flip();
+    buffer.get(bytes);
+    return new PacketTemplate(plugin, pluginInstance, type, typeInstances[0], typeInstances[typeInstances.length - 1],
+      bytes, instanceOffset, typeOffset, bodyOffset, slotOffsets, slotTypes, typeInstances.length);
+  }
+
+  String plugin() {
+    return plugin;
+  }
+
+  String pluginInstance() {
+    return pluginInstance;
+  }
+
+  String type() {
+    return type;
+  }
+
+  /**
+   * Return the type instance in effect before the body (null when the body starts without one).
+   */
+  String firstTypeInstance() {
+    return firstTypeInstance;
+  }
+
+  /**
+   * Return the type instance in effect after the body.
+   */
+  String lastTypeInstance() {
+    return lastTypeInstance;
+  }
+
+  /**
+   * Return the number of value lists.
+   */
+  int valueLists() {
+    return valueLists;
+  }
+
+  /**
+   * Return the number of value slots.
+   */
+  int slots() {
+    return slotOffsets.length;
+  }
+
+  /**
+   * Return the maximum number of bytes written for this template.
+   */
+  int length() {
+    return bytes.length;
+  }
+
+  void putPlugin(ByteBuffer buffer) {
+    buffer.put(bytes, 0, instanceOffset);
+  }
+
+  void putPluginInstance(ByteBuffer buffer) {
+    buffer.put(bytes, instanceOffset, typeOffset - instanceOffset);
+  }
+
+  void putType(ByteBuffer buffer) {
+    buffer.put(bytes, typeOffset, bodyOffset - typeOffset);
+  }
+
+  /**
+   * Put the body and patch the values into its slots.
+   */
+  void putBody(ByteBuffer buffer, double[] values) {
+    final int start = buffer.position() - bodyOffset;
+    buffer.put(bytes, bodyOffset, bytes.length - bodyOffset);
+    for (int i = 0; i < slotOffsets.length; i++) {
+      PacketWriter.putValue(buffer, start + slotOffsets[i], slotTypes[i], values[i]);
+    }
+  }
+}
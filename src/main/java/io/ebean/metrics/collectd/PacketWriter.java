@@ -11,24 +11,27 @@ import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidParameterSpecException;
-import java.util.Arrays;
+import java.security.SecureRandom;
+import java.util.Objects;
 
 class PacketWriter {
 
-  private static final int TYPE_HOST = 0;
-  private static final int TYPE_TIME = 1;
-  private static final int TYPE_PLUGIN = 2;
-  private static final int TYPE_PLUGIN_INSTANCE = 3;
-  private static final int TYPE_TYPE = 4;
-  private static final int TYPE_TYPE_INSTANCE = 5;
-  private static final int TYPE_VALUES = 6;
+  static final int TYPE_HOST = 0;
+  static final int TYPE_TIME = 1;
+  static final int TYPE_PLUGIN = 2;
+  static final int TYPE_PLUGIN_INSTANCE = 3;
+  static final int TYPE_TYPE = 4;
+  static final int TYPE_TYPE_INSTANCE = 5;
+  static final int TYPE_VALUES = 6;
   private static final int TYPE_INTERVAL = 7;
+  static final int TYPE_TIME_HR = 0x0008;
+  static final int TYPE_INTERVAL_HR = 0x0009;
   private static final int TYPE_SIGN_SHA256 = 0x0200;
   private static final int TYPE_ENCR_AES256 = 0x0210;
 
@@ -36,7 +39,21 @@ class PacketWriter {
   private static final int UINT32_LEN = UINT16_LEN * 2;
   private static final int UINT64_LEN = UINT32_LEN * 2;
   private static final int HEADER_LEN = UINT16_LEN * 2;
-  private static final int BUFFER_SIZE = 1024;
+
+  /**
+   * Default maximum datagram payload, matching the collectd network plugin (1500 MTU less IPv6 and UDP headers).
+   */
+  static final int DEFAULT_PACKET_SIZE = 1452;
+
+  /**
+   * Default number of datagrams collected before they are sent as a batch.
+   */
+  static final int DEFAULT_BATCH_SIZE = 32;
+
+  /**
+   * Maximum encoded size of a packet template.
+   */
+  static final int MAX_TEMPLATE_SIZE = 4096;
 
   private static final int VALUE_COUNT_LEN = UINT16_LEN;
   private static final int NUMBER_LEN = HEADER_LEN + UINT64_LEN;
@@ -46,8 +63,9 @@ class PacketWriter {
   private static final int SHA1_LENGTH = 20;
 
   private static final int VALUE_LEN = 9;
-  private static final byte DATA_TYPE_GAUGE = (byte) 1;
+  private static final DataSourceType[] SINGLE_GAUGE = {DataSourceType.GAUGE};
   private static final byte NULL = (byte) '\0';
+  private static final byte UNMAPPABLE = (byte) '?';
   private static final String HMAC_SHA256_ALGORITHM = "HmacSHA256";
   private static final String AES_CYPHER = "AES_256/OFB/NoPadding";
   private static final String AES = "AES";
@@ -58,81 +76,428 @@ class PacketWriter {
 
   private final SecurityLevel securityLevel;
   private final byte[] username;
-  private final byte[] password;
+  private final int packetSize;
+
+  /**
+   * Keys derived once from the password along with the crypto primitives that are
+   * reused for each datagram (only the IV is changed per encrypted datagram). Like the
+   * buffers these are owned by this writer which is not thread safe.
+   */
+  private final SecretKeySpec encryptionKey;
+  private final SecureRandom random;
+  private final Mac mac;
+  private final Cipher cipher;
+  private final MessageDigest sha1Digest;
+
+  /**
+   * Completed datagrams waiting to be sent as a batch.
+   */
+  private final ByteBuffer[] batch;
+  private int batchCount;
+
+  /**
+   * The datagram being filled with value lists (before any sign or encrypt envelope).
+   * With no security this is the next batch buffer.
+   */
+  private ByteBuffer packet;
+
+  /**
+   * Reused arrays for the signature, hash and IV such that steady state writing
+   * of metrics does not allocate.
+   */
+  private final byte[] signature = new byte[SIGNATURE_LEN - HEADER_LEN];
+  private final byte[] sha1 = new byte[SHA1_LENGTH];
+  private final ByteBuffer sha1Buffer = ByteBuffer.wrap(sha1);
+  private final byte[] iv = new byte[IV_LENGTH];
+  private final double[] singleValue = new double[1];
+
+  /**
+   * The parts last written to the current datagram. Collectd carries these forward to
+   * subsequent value lists in the same datagram so unchanged parts are not written again.
+   */
+  private String lastHost;
+  private long lastTime;
+  private String lastPlugin;
+  private String lastPluginInstance;
+  private String lastType;
+  private String lastTypeInstance;
+  private long lastInterval;
+
+  /**
+   * Totals of the value lists written and the time spent signing or encrypting.
+   */
+  private long valueLists;
+  private long cryptoNanos;
 
   PacketWriter(Sender sender, String username, String password, SecurityLevel securityLevel) {
+    this(sender, username, password, securityLevel, DEFAULT_PACKET_SIZE, DEFAULT_BATCH_SIZE, false);
+  }
+
+  PacketWriter(Sender sender, String username, String password, SecurityLevel securityLevel, int packetSize,
+               int batchSize, boolean directBuffers) {
+    this(sender, username, password, securityLevel, packetSize, batchSize, directBuffers, new SecureRandom());
+  }
+
+  PacketWriter(Sender sender, String username, String password, SecurityLevel securityLevel, int packetSize,
+               int batchSize, boolean directBuffers, SecureRandom random) {
     this.sender = sender;
     this.securityLevel = securityLevel;
     this.username = username != null ? username.getBytes(StandardCharsets.UTF_8) : null;
-    this.password = password != null ? password.getBytes(StandardCharsets.UTF_8) : null;
+    this.random = random;
+    if (securityLevel == SecurityLevel.NONE || password == null) {
+      // no keys are derived as the builder defaults to an empty password
+      this.mac = null;
+      this.encryptionKey = null;
+      this.cipher = null;
+      this.sha1Digest = null;
+    } else {
+      final byte[] secret = password.getBytes(StandardCharsets.UTF_8);
+      final boolean encrypt = securityLevel == SecurityLevel.ENCRYPT;
+      this.mac = encrypt ? null : newMac(new SecretKeySpec(secret, HMAC_SHA256_ALGORITHM));
+      this.encryptionKey = encrypt ? new SecretKeySpec(sha256(secret), AES) : null;
+      this.cipher = encrypt ? newCipher() : null;
+      this.sha1Digest = encrypt ? newDigest(SHA_1_ALGORITHM) : null;
+    }
+    this.packetSize = packetSize;
+    this.batch = new ByteBuffer[batchSize];
+    for (int i = 0; i < batchSize; i++) {
+      batch[i] = allocate(packetSize, directBuffers);
+    }
+    this.packet = securityLevel == SecurityLevel.NONE ? batch[0] : allocate(packetSize - envelopeLength(), directBuffers);
+    resetParts();
   }
 
-  void write(MetaData metaData, Number... values) throws BufferOverflowException, IOException {
-    final ByteBuffer packet = ByteBuffer.allocate(BUFFER_SIZE);
-    write(packet, metaData);
-    write(packet, values);
-    packet.flip();
+  private static ByteBuffer allocate(int size, boolean direct) {
+    return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+  }
 
+  /**
+   * Return the number of bytes the sign or encrypt envelope adds to each datagram.
+   */
+  private int envelopeLength() {
     switch (securityLevel) {
-      case NONE:
-        sender.send(packet);
-        break;
       case SIGN:
-        sender.send(signPacket(packet));
-        break;
+        return SIGNATURE_LEN + username.length;
       case ENCRYPT:
-        sender.send(encryptPacket(packet));
-        break;
+        return ENCRYPT_DATA_LEN + username.length + SHA1_LENGTH;
       default:
-        throw new IllegalArgumentException("Unsupported security level: " + securityLevel);
+        return 0;
+    }
+  }
+
+  /**
+   * Append a value list with a single gauge value to the current datagram.
+   */
+  void write(MetaData metaData, double value) throws BufferOverflowException, IOException {
+    singleValue[0] = value;
+    write(metaData, SINGLE_GAUGE, singleValue);
+  }
+
+  /**
+   * Append a value list with the given data source types to the current datagram.
+   * <p>
+   * When the value list does not fit into the remaining space the current datagram
+   * is completed and the value list starts a new datagram. Completed datagrams are
+   * sent when the batch is full or on {@link #flush()}.
+   * </p>
+   * <p>
+   * Values for COUNTER, DERIVE and ABSOLUTE data sources are written as 64 bit integers.
+   * </p>
+   */
+  void write(MetaData metaData, DataSourceType[] types, double[] values) throws BufferOverflowException, IOException {
+    if (!append(metaData, types, values)) {
+      complete();
+      if (batchCount == batch.length) {
+        sendBatch();
+      }
+      if (!append(metaData, types, values)) {
+        throw new BufferOverflowException();
+      }
+    }
+    valueLists++;
+  }
+
+  /**
+   * Append the value lists of a template with the values patched into its slots.
+   * <p>
+   * The host, time and interval come from the metaData and the other parts from the template.
+   * </p>
+   */
+  void write(MetaData metaData, PacketTemplate template, double[] values) throws BufferOverflowException, IOException {
+    if (!append(metaData, template, values)) {
+      complete();
+      if (batchCount == batch.length) {
+        sendBatch();
+      }
+      if (!append(metaData, template, values)) {
+        throw new BufferOverflowException();
+      }
+    }
+    valueLists += template.valueLists();
+  }
+
+  /**
+   * Complete the current datagram and send all completed datagrams.
+   */
+  void flush() throws IOException {
+    complete();
+    sendBatch();
+  }
+
+  /**
+   * Return the total number of value lists written.
+   */
+  long valueLists() {
+    return valueLists;
+  }
+
+  /**
+   * Return the total time in nanoseconds spent signing or encrypting datagrams.
+   */
+  long cryptoNanos() {
+    return cryptoNanos;
+  }
+
+  /**
+   * Return the maximum datagram payload size in bytes.
+   */
+  int packetSize() {
+    return packetSize;
+  }
+
+  private boolean append(MetaData metaData, DataSourceType[] types, double[] values) {
+    final int start = packet.position();
+    try {
+      write(packet, metaData);
+      write(packet, types, values);
+      return true;
+    } catch (BufferOverflowException e) {
+      packet.position(start);
+      // the datagram is flushed or discarded next so it starts with all parts again
+      resetParts();
+      return false;
+    }
+  }
+
+  private boolean append(MetaData metaData, PacketTemplate template, double[] values) {
+    final int start = packet.position();
+    try {
+      writeHostAndTime(packet, metaData);
+      if (!template.plugin().equals(lastPlugin)) {
+        template.putPlugin(packet);
+        lastPlugin = template.plugin();
+      }
+      final String pluginInstance = template.pluginInstance();
+      if (!Objects.equals(pluginInstance, lastPluginInstance)) {
+        if (pluginInstance == null) {
+          writeString(packet, TYPE_PLUGIN_INSTANCE, null);
+        } else {
+          template.putPluginInstance(packet);
+        }
+        lastPluginInstance = pluginInstance;
+      }
+      if (!template.type().equals(lastType)) {
+        template.putType(packet);
+        lastType = template.type();
+      }
+      if (template.firstTypeInstance() == null && lastTypeInstance != null) {
+        writeString(packet, TYPE_TYPE_INSTANCE, null);
+      }
+      writeInterval(packet, metaData);
+      template.putBody(packet, values);
+      lastTypeInstance = template.lastTypeInstance();
+      return true;
+    } catch (BufferOverflowException e) {
+      packet.position(start);
+      // the datagram is flushed or discarded next so it starts with all parts again
+      resetParts();
+      return false;
+    }
+  }
+
+  private void resetParts() {
+    lastHost = null;
+    lastTime = Long.MIN_VALUE;
+    lastPlugin = null;
+    lastPluginInstance = null;
+    lastType = null;
+    lastTypeInstance = null;
+    lastInterval = Long.MIN_VALUE;
+  }
+
+  /**
+   * Add the current datagram (signed or encrypted as required) to the batch.
+   */
+  private void complete() {
+    if (packet.position() == 0) {
+      return;
+    }
+    packet.flip();
+    try {
+      switch (securityLevel) {
+        case NONE:
+          break;
+        case SIGN: {
+          final long start = System.nanoTime();
+          signPacket(packet, batch[batchCount]);
+          cryptoNanos += System.nanoTime() - start;
+          break;
+        }
+        case ENCRYPT: {
+          final long start = System.nanoTime();
+          encryptPacket(packet, batch[batchCount]);
+          cryptoNanos += System.nanoTime() - start;
+          break;
+        }
+        default:
+          throw new IllegalArgumentException("Unsupported security level: " + securityLevel);
+      }
+      batchCount++;
+    } finally {
+      nextPacket();
+    }
+  }
+
+  private void sendBatch() throws IOException {
+    if (batchCount == 0) {
+      return;
+    }
+    try {
+      sender.send(batch, batchCount);
+    } finally {
+      for (int i = 0; i < batchCount; i++) {
+        batch[i].clear();
+      }
+      batchCount = 0;
+      nextPacket();
+    }
+  }
+
+  private void nextPacket() {
+    resetParts();
+    if (securityLevel != SecurityLevel.NONE) {
+      packet.clear();
+    } else if (batchCount < batch.length) {
+      packet = batch[batchCount];
     }
   }
 
 
+  /**
+   * Write the parts that differ from those already written to the current datagram.
+   */
   private void write(ByteBuffer buffer, MetaData metaData) {
-    writeString(buffer, TYPE_HOST, metaData.getHost());
-    writeNumber(buffer, TYPE_TIME, metaData.getTimestamp());
-    writeString(buffer, TYPE_PLUGIN, metaData.getPlugin());
-    writeString(buffer, TYPE_PLUGIN_INSTANCE, metaData.getPluginInstance());
-    writeString(buffer, TYPE_TYPE, metaData.getType());
-    writeString(buffer, TYPE_TYPE_INSTANCE, metaData.getTypeInstance());
-    writeNumber(buffer, TYPE_INTERVAL, metaData.getPeriod());
+    writeHostAndTime(buffer, metaData);
+    final String plugin = emptyToNull(metaData.getPlugin());
+    if (!Objects.equals(plugin, lastPlugin)) {
+      writeString(buffer, TYPE_PLUGIN, plugin);
+      lastPlugin = plugin;
+    }
+    final String pluginInstance = emptyToNull(metaData.getPluginInstance());
+    if (!Objects.equals(pluginInstance, lastPluginInstance)) {
+      writeString(buffer, TYPE_PLUGIN_INSTANCE, pluginInstance);
+      lastPluginInstance = pluginInstance;
+    }
+    final String type = emptyToNull(metaData.getType());
+    if (!Objects.equals(type, lastType)) {
+      writeString(buffer, TYPE_TYPE, type);
+      lastType = type;
+    }
+    final String typeInstance = emptyToNull(metaData.getTypeInstance());
+    if (!Objects.equals(typeInstance, lastTypeInstance)) {
+      writeString(buffer, TYPE_TYPE_INSTANCE, typeInstance);
+      lastTypeInstance = typeInstance;
+    }
+    writeInterval(buffer, metaData);
   }
 
-  private void write(ByteBuffer buffer, Number... values) {
-    final int numValues = values.length;
+  /**
+   * Write the host and time parts that differ from those already written.
+   */
+  private void writeHostAndTime(ByteBuffer buffer, MetaData metaData) {
+    final String host = emptyToNull(metaData.getHost());
+    if (!Objects.equals(host, lastHost)) {
+      writeString(buffer, TYPE_HOST, host);
+      lastHost = host;
+    }
+    if (metaData.getTimestamp() != lastTime) {
+      writeNumber(buffer, metaData.isHighResolution() ? TYPE_TIME_HR : TYPE_TIME, metaData.getTimestamp());
+      lastTime = metaData.getTimestamp();
+    }
+  }
+
+  private void writeInterval(ByteBuffer buffer, MetaData metaData) {
+    if (metaData.getPeriod() != lastInterval) {
+      writeNumber(buffer, metaData.isHighResolution() ? TYPE_INTERVAL_HR : TYPE_INTERVAL, metaData.getPeriod());
+      lastInterval = metaData.getPeriod();
+    }
+  }
+
+  private static String emptyToNull(String val) {
+    return (val == null || val.isEmpty()) ? null : val;
+  }
+
+  private void write(ByteBuffer buffer, DataSourceType[] types, double[] values) {
+    writeValuesHeader(buffer, types);
+    for (int i = 0; i < types.length; i++) {
+      buffer.putLong(encode(types[i], values[i]));
+    }
+  }
+
+  /**
+   * Write the values part header and data source types (to be followed by the values).
+   */
+  static void writeValuesHeader(ByteBuffer buffer, DataSourceType[] types) {
+    final int numValues = types.length;
     final int length = HEADER_LEN + VALUE_COUNT_LEN + numValues * VALUE_LEN;
     writeHeader(buffer, TYPE_VALUES, length);
     buffer.putShort((short) numValues);
-    buffer.put(nCopies(numValues, DATA_TYPE_GAUGE));
-    buffer.order(ByteOrder.LITTLE_ENDIAN);
-    for (Number value : values) {
-      buffer.putDouble(value.doubleValue());
+    for (DataSourceType type : types) {
+      buffer.put(type.code());
     }
-    buffer.order(ByteOrder.BIG_ENDIAN);
   }
 
-  private byte[] nCopies(int n, byte value) {
-    final byte[] array = new byte[n];
-    Arrays.fill(array, value);
-    return array;
+  /**
+   * Put a value at the given index of the buffer.
+   */
+  static void putValue(ByteBuffer buffer, int index, DataSourceType type, double value) {
+    buffer.putLong(index, encode(type, value));
+  }
+
+  private static long encode(DataSourceType type, double value) {
+    if (type == DataSourceType.GAUGE) {
+      // gauge values are little endian doubles
+      return Long.reverseBytes(Double.doubleToRawLongBits(value));
+    }
+    // counter, derive and absolute values are big endian integers
+    return (long) value;
   }
 
-  private void writeString(ByteBuffer buffer, int type, String val) {
-    if (val == null || val.length() == 0) {
+  /**
+   * Write a string part. A null value is written as an empty string which clears
+   * the part carried forward from a previous value list.
+   */
+  static void writeString(ByteBuffer buffer, int type, String val) {
+    if (val == null) {
+      writeHeader(buffer, type, HEADER_LEN + 1);
+      buffer.put(NULL);
       return;
     }
-    int len = HEADER_LEN + val.length() + 1;
-    writeHeader(buffer, type, len);
-    buffer.put(val.getBytes(StandardCharsets.US_ASCII)).put(NULL);
+    final int strLen = val.length();
+    writeHeader(buffer, type, HEADER_LEN + strLen + 1);
+    for (int i = 0; i < strLen; i++) {
+      final char c = val.charAt(i);
+      buffer.put(c < 128 ? (byte) c : UNMAPPABLE);
+    }
+    buffer.put(NULL);
   }
 
-  private void writeNumber(ByteBuffer buffer, int type, long val) {
+  private static void writeNumber(ByteBuffer buffer, int type, long val) {
     writeHeader(buffer, type, NUMBER_LEN);
     buffer.putLong(val);
   }
 
-  private void writeHeader(ByteBuffer buffer, int type, int len) {
+  private static void writeHeader(ByteBuffer buffer, int type, int len) {
     buffer.putShort((short) type);
     buffer.putShort((short) len);
   }
@@ -153,18 +518,23 @@ class PacketWriter {
    * @see <a href="https://collectd.org/wiki/index.php/Binary_protocol#Signature_part">
    * Binary protocol - Collectd | Signature part</a>
    */
-  private ByteBuffer signPacket(ByteBuffer packet) {
-    final byte[] signature = sign(password, (ByteBuffer) ByteBuffer.allocate(packet.remaining() + username.length)
-      .put(username)
-      .put(packet)
-      .flip());
-    return (ByteBuffer) ByteBuffer.allocate(BUFFER_SIZE)
+  private void signPacket(ByteBuffer packet, ByteBuffer envelope) {
+    mac.update(username);
+    final int start = packet.position();
+    mac.update(packet);
+    packet.position(start);
+    try {
+      mac.doFinal(signature, 0);
+    } catch (ShortBufferException e) {
+      throw new RuntimeException(e);
+    }
+    envelope
       .putShort((short) TYPE_SIGN_SHA256)
       .putShort((short) (username.length + SIGNATURE_LEN))
       .put(signature)
       .put(username)
-      .put((ByteBuffer) packet.flip())
-      .flip();
+      .put(packet);
+    envelope.flip();
   }
 
   /**
@@ -185,90 +555,73 @@ class PacketWriter {
    * @see <a href="https://collectd.org/wiki/index.php/Binary_protocol#Encrypted_part">
    * Binary protocol - Collectd | Encrypted part</a>
    */
-  private ByteBuffer encryptPacket(ByteBuffer packet) {
-    final ByteBuffer payload = (ByteBuffer) ByteBuffer.allocate(SHA1_LENGTH + packet.remaining())
-      .put(sha1(packet))
-      .put((ByteBuffer) packet.flip())
-      .flip();
-    final EncryptionResult er = encrypt(password, payload);
-    return (ByteBuffer) ByteBuffer.allocate(BUFFER_SIZE)
+  private void encryptPacket(ByteBuffer packet, ByteBuffer envelope) {
+    final int start = packet.position();
+    sha1(packet);
+    packet.position(start);
+
+    random.nextBytes(iv);
+    try {
+      cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, new IvParameterSpec(iv));
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+      throw new RuntimeException(e);
+    }
+    // OFB without padding so the encrypted length matches the input length
+    final int encryptedLength = SHA1_LENGTH + packet.remaining();
+    envelope
       .putShort((short) TYPE_ENCR_AES256)
-      .putShort((short) (ENCRYPT_DATA_LEN + username.length + er.output.remaining()))
+      .putShort((short) (ENCRYPT_DATA_LEN + username.length + encryptedLength))
       .putShort((short) username.length)
       .put(username)
-      .put(er.iv)
-      .put(er.output)
-      .flip();
-  }
-
-  private static byte[] sign(byte[] secret, ByteBuffer input) {
-    final Mac mac;
+      .put(iv);
+    sha1Buffer.clear();
     try {
-      mac = Mac.getInstance(HMAC_SHA256_ALGORITHM);
-      mac.init(new SecretKeySpec(secret, HMAC_SHA256_ALGORITHM));
-    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      cipher.update(sha1Buffer, envelope);
+      cipher.doFinal(packet, envelope);
+    } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException e) {
       throw new RuntimeException(e);
     }
-    mac.update(input);
-    return mac.doFinal();
+    envelope.flip();
   }
 
-  private static EncryptionResult encrypt(byte[] password, ByteBuffer input) {
-    final Cipher cipher;
+  private void sha1(ByteBuffer input) {
+    sha1Digest.update(input);
     try {
-      cipher = Cipher.getInstance(AES_CYPHER);
-      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(sha256(password), AES));
-    } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException e) {
-      throw new RuntimeException(e);
-    }
-    final byte[] iv;
-    try {
-      iv = cipher.getParameters().getParameterSpec(IvParameterSpec.class).getIV();
-    } catch (InvalidParameterSpecException e) {
-      throw new RuntimeException(e);
-    }
-    if (iv.length != IV_LENGTH) {
-      throw new IllegalStateException("Bad initialization vector");
-    }
-    final ByteBuffer output = ByteBuffer.allocate(input.remaining() * 2);
-    try {
-      cipher.doFinal(input, output);
-    } catch (ShortBufferException | IllegalBlockSizeException | BadPaddingException e) {
-      throw new RuntimeException(e);
+      if (sha1Digest.digest(sha1, 0, SHA1_LENGTH) != SHA1_LENGTH) {
+        throw new IllegalStateException("Bad SHA1 hash");
+      }
+    } catch (DigestException e) {
+      throw new IllegalStateException("Bad SHA1 hash", e);
     }
-    return new EncryptionResult(iv, (ByteBuffer) output.flip());
   }
 
   private static byte[] sha256(byte[] input) {
+    return newDigest(SHA_256_ALGORITHM).digest(input);
+  }
+
+  private static MessageDigest newDigest(String algorithm) {
     try {
-      return MessageDigest.getInstance(SHA_256_ALGORITHM).digest(input);
+      return MessageDigest.getInstance(algorithm);
     } catch (NoSuchAlgorithmException e) {
       throw new RuntimeException(e);
     }
   }
 
-  private static byte[] sha1(ByteBuffer input) {
+  private static Mac newMac(SecretKeySpec key) {
     try {
-      final MessageDigest digest = MessageDigest.getInstance(SHA_1_ALGORITHM);
-      digest.update(input);
-      final byte[] output = digest.digest();
-      if (output.length != SHA1_LENGTH) {
-        throw new IllegalStateException("Bad SHA1 hash");
-      }
-      return output;
-    } catch (NoSuchAlgorithmException e) {
+      final Mac mac = Mac.getInstance(HMAC_SHA256_ALGORITHM);
+      mac.init(key);
+      return mac;
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
       throw new RuntimeException(e);
     }
   }
 
-  private static class EncryptionResult {
-
-    private final byte[] iv;
-    private final ByteBuffer output;
-
-    private EncryptionResult(byte[] iv, ByteBuffer output) {
-      this.iv = iv;
-      this.output = output;
+  private static Cipher newCipher() {
+    try {
+      return Cipher.getInstance(AES_CYPHER);
+    } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+      throw new RuntimeException(e);
     }
   }
 
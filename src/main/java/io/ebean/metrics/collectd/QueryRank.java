@@ -0,0 +1,33 @@
+package io.ebean.metrics.collectd;
+
+/**
+ * How query metrics are ranked when only the top queries are reported.
+ */
+public enum QueryRank {
+
+  /**
+   * Rank by the total execution time in the interval.
+   */
+  TOTAL,
+
+  /**
+   * Rank by the number of executions in the interval.
+   */
+  COUNT,
+
+  /**
+   * Rank by the max execution time in the interval.
+   */
+  MAX;
+
+  long value(Metric interval) {
+    switch (this) {
+      case COUNT:
+        return interval.count();
+      case MAX:
+        return interval.max();
+      default:
+        return interval.total();
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package io.ebean.metrics.collectd;
+
+/**
+ * What to do with a new snapshot when the reporting queue is full.
+ */
+public enum QueueFullPolicy {
+
+  /**
+   * Drop the new snapshot.
+   */
+  DROP_NEWEST,
+
+  /**
+   * Drop the oldest queued snapshot to make room for the new one.
+   */
+  DROP_OLDEST,
+
+  /**
+   * Combine the oldest queued snapshot with the new one.
+   */
+  COALESCE
+}
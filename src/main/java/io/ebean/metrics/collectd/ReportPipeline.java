@@ -0,0 +1,135 @@
+package io.ebean.metrics.collectd;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+/**
+ * Bounded queue of snapshots with a dedicated thread that encodes and sends them.
+ * <p>
+ * Collecting a snapshot only offers it to the queue so it never waits on network IO.
+ * The sending thread is never interrupted as that would close an interruptible channel
+ * part way through a batch. On shutdown it stops after the snapshot being sent.
+ * </p>
+ */
+final class ReportPipeline {
+
+  private static final Logger log = LoggerFactory.getLogger(ReportPipeline.class);
+
+  /**
+   * Time to wait for the sending thread to stop on shutdown.
+   */
+  private static final long SHUTDOWN_WAIT_MILLIS = 5_000;
+
+  /**
+   * Queued to wake the sending thread on shutdown.
+   */
+  private static final Snapshot SHUTDOWN = Snapshot.ofMillis(0, 0, Collections.emptyList(), false);
+
+  private final BlockingDeque<Snapshot> queue;
+  private final QueueFullPolicy policy;
+  private final Consumer<Snapshot> consumer;
+  private final Thread thread;
+  private volatile boolean running = true;
+
+  ReportPipeline(int capacity, QueueFullPolicy policy, ThreadFactory threadFactory, Consumer<Snapshot> consumer) {
+    this.queue = new LinkedBlockingDeque<>(capacity);
+    this.policy = policy;
+    this.consumer = consumer;
+    this.thread = threadFactory.newThread(this::run);
+  }
+
+  /**
+   * Return a thread factory creating a daemon thread for sending.
+   */
+  static ThreadFactory defaultThreadFactory() {
+    return runnable -> {
+      Thread thread = new Thread(runnable, "ebean-collectd");
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  /**
+   * Stop the sending thread waiting for a send in progress to complete.
+   */
+  void shutdown() {
+    running = false;
+    // wakes the thread when waiting on an empty queue (when full the thread is busy sending)
+    queue.offerLast(SHUTDOWN);
+    if (Thread.currentThread() == thread) {
+      return;
+    }
+    try {
+      thread.join(SHUTDOWN_WAIT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Add the snapshot to the queue applying the policy when the queue is full.
+   * <p>
+   * COALESCE merges the snapshot into the newest queued snapshot such that snapshots
+   * are still sent in order and each covers a contiguous period.
+   * </p>
+   */
+  synchronized void offer(Snapshot snapshot) {
+    if (queue.offerLast(snapshot)) {
+      return;
+    }
+    switch (policy) {
+      case DROP_NEWEST:
+        log.warn("Reporting queue full, dropping metrics at {}", snapshot.epochSecs());
+        break;
+      case DROP_OLDEST:
+        Snapshot oldest = queue.pollFirst();
+        if (oldest != null) {
+          log.warn("Reporting queue full, dropping metrics at {}", oldest.epochSecs());
+        }
+        queue.offerLast(snapshot);
+        break;
+      case COALESCE:
+        Snapshot newest = queue.pollLast();
+        queue.offerLast(newest == null ? snapshot : newest.coalesce(snapshot));
+        break;
+      default:
+        throw new IllegalStateException("Unsupported policy: " + policy);
+    }
+  }
+
+  /**
+   * Return the number of snapshots waiting to be sent.
+   */
+  int size() {
+    return queue.size();
+  }
+
+  private void run() {
+    while (running) {
+      try {
+        final Snapshot snapshot = queue.take();
+        if (snapshot == SHUTDOWN) {
+          return;
+        }
+        consumer.accept(snapshot);
+      } catch (InterruptedException e) {
+        if (!running) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      } catch (RuntimeException e) {
+        log.warn("Error sending metrics to Collectd", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package io.ebean.metrics.collectd;
+
+/**
+ * Totals of the work done by the reporter since it was built.
+ * <p>
+ * These are also sent each report as plugin {@code ebean_collectd} with a type instance per value.
+ * </p>
+ */
+public final class ReporterStats {
+
+  /**
+   * The type instance of each value in the order of {@link #values(double[])}.
+   */
+  static final String[] NAMES = {"cycles", "metrics", "value_lists", "datagrams", "bytes",
+    "encode_nanos", "crypto_nanos", "send_nanos", "metric_failures", "io_errors", "spooled", "replayed",
+    "skipped", "dropped"};
+
+  static final ReporterStats EMPTY = new ReporterStats(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+
+  private final long cycles;
+  private final long metrics;
+  private final long valueLists;
+  private final long datagrams;
+  private final long bytes;
+  private final long encodeNanos;
+  private final long cryptoNanos;
+  private final long sendNanos;
+  private final long metricFailures;
+  private final long ioErrors;
+  private final long spooled;
+  private final long replayed;
+  private final long skipped;
+  private final long dropped;
+
+  ReporterStats(long cycles, long metrics, long valueLists, long datagrams, long bytes, long encodeNanos,
+                long cryptoNanos, long sendNanos, long metricFailures, long ioErrors, long spooled,
+                long replayed, long skipped, long dropped) {
+    this.cycles = cycles;
+    this.metrics = metrics;
+    this.valueLists = valueLists;
+    this.datagrams = datagrams;
+    this.bytes = bytes;
+    this.encodeNanos = encodeNanos;
+    this.cryptoNanos = cryptoNanos;
+    this.sendNanos = sendNanos;
+    this.metricFailures = metricFailures;
+    this.ioErrors = ioErrors;
+    this.spooled = spooled;
+    this.replayed = replayed;
+    this.skipped = skipped;
+    this.dropped = dropped;
+  }
+
+  /**
+   * Return the number of reports sent.
+   */
+  public long cycles() {
+    return cycles;
+  }
+
+  /**
+   * Return the number of metrics visited.
+   */
+  public long metrics() {
+    return metrics;
+  }
+
+  /**
+   * Return the number of value lists written.
+   */
+  public long valueLists() {
+    return valueLists;
+  }
+
+  /**
+   * Return the number of datagrams sent.
+   */
+  public long datagrams() {
+    return datagrams;
+  }
+
+  /**
+   * Return the number of bytes sent.
+   */
+  public long bytes() {
+    return bytes;
+  }
+
+  /**
+   * Return the time in nanoseconds spent encoding metrics (excluding crypto and send).
+   */
+  public long encodeNanos() {
+    return encodeNanos;
+  }
+
+  /**
+   * Return the time in nanoseconds spent signing or encrypting datagrams.
+   */
+  public long cryptoNanos() {
+    return cryptoNanos;
+  }
+
+  /**
+   * Return the time in nanoseconds spent sending datagrams.
+   */
+  public long sendNanos() {
+    return sendNanos;
+  }
+
+  /**
+   * Return the number of metrics that failed to be written (for example too large for a datagram).
+   */
+  public long metricFailures() {
+    return metricFailures;
+  }
+
+  /**
+   * Return the number of errors sending datagrams (including those then spooled).
+   */
+  public long ioErrors() {
+    return ioErrors;
+  }
+
+  /**
+   * Return the number of datagrams spooled as they failed to send.
+   */
+  public long spooled() {
+    return spooled;
+  }
+
+  /**
+   * Return the number of spooled datagrams replayed.
+   */
+  public long replayed() {
+    return replayed;
+  }
+
+  /**
+   * Return the number of datagrams not sent as the circuit breaker was open (without a spool).
+   */
+  public long skipped() {
+    return skipped;
+  }
+
+  /**
+   * Return the number of datagrams dropped as they did not fit in the spool or were evicted from it.
+   */
+  public long dropped() {
+    return dropped;
+  }
+
+  /**
+   * Put the values into the array in the order of {@link #NAMES}.
+   */
+  double[] values(double[] values) {
+    values[0] = cycles;
+    values[1] = metrics;
+    values[2] = valueLists;
+    values[3] = datagrams;
+    values[4] = bytes;
+    values[5] = encodeNanos;
+    values[6] = cryptoNanos;
+    values[7] = sendNanos;
+    values[8] = metricFailures;
+    values[9] = ioErrors;
+    values[10] = spooled;
+    values[11] = replayed;
+    values[12] = skipped;
+    values[13] = dropped;
+    return values;
+  }
+
+  @Override
+  public String toString() {
+    return "cycles:" + cycles + " metrics:" + metrics + " valueLists:" + valueLists + " datagrams:" + datagrams
+      + " bytes:" + bytes + " encodeNanos:" + encodeNanos + " cryptoNanos:" + cryptoNanos + " sendNanos:" + sendNanos
+      + " metricFailures:" + metricFailures + " ioErrors:" + ioErrors + " spooled:" + spooled + " replayed:" + replayed
+      + " skipped:" + skipped + " dropped:" + dropped;
+  }
+}
@@ -1,43 +1,129 @@
 package io.ebean.metrics.collectd;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
+ * Sanitize names using a lookup table of the replacement for each ASCII char.
+ * <p>
+ * Results are cached by the raw name in a least recently used cache large enough to hold
+ * the names of tens of thousands of queries. Names longer than 63 chars are truncated and
+ * given a 64 bit FNV-1a hash suffix such that they remain unique.
+ * </p>
+ *
  * @see <a href="https://collectd.org/wiki/index.php/Naming_schema>Collectd naming schema</a>
  */
 class Sanitize {
 
-  private static final int MAX_LENGTH = 63;
+  static final int MAX_LENGTH = 63;
+
+  /**
+   * Maximum number of names cached for each of name and instance name.
+   */
+  static final int MAX_CACHE_SIZE = 65536;
 
   private static final char DASH = '-';
   private static final char SLASH = '/';
   private static final char NULL = '\0';
   private static final char UNDERSCORE = '_';
 
-  private static final List<Character> INSTANCE_RESERVED = Arrays.asList(SLASH, NULL);
-  private static final List<Character> NAME_RESERVED = Arrays.asList(DASH, SLASH, NULL);
+  private static final int HASH_LENGTH = 16;
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private static final char[] INSTANCE_TABLE = table(SLASH, NULL);
+  private static final char[] NAME_TABLE = table(DASH, SLASH, NULL);
+
+  private static final Map<String, String> INSTANCE_CACHE = lruCache();
+  private static final Map<String, String> NAME_CACHE = lruCache();
 
   private Sanitize() {
   }
 
   static String name(String name) {
-    return sanitize(name, NAME_RESERVED);
+    return cached(name, NAME_TABLE, NAME_CACHE);
   }
 
   static String instanceName(String instanceName) {
-    return sanitize(instanceName, INSTANCE_RESERVED);
+    return cached(instanceName, INSTANCE_TABLE, INSTANCE_CACHE);
+  }
+
+  private static Map<String, String> lruCache() {
+    return Collections.synchronizedMap(new LinkedHashMap<String, String>(1024, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > MAX_CACHE_SIZE;
+      }
+    });
+  }
+
+  private static char[] table(char... reservedChars) {
+    final char[] table = new char[128];
+    for (int i = 0; i < table.length; i++) {
+      table[i] = (char) i;
+    }
+    for (char reserved : reservedChars) {
+      table[reserved] = UNDERSCORE;
+    }
+    return table;
+  }
+
+  private static String cached(String string, char[] table, Map<String, String> cache) {
+    String sanitized = cache.get(string);
+    if (sanitized == null) {
+      sanitized = sanitize(string, table);
+      cache.put(string, sanitized);
+    }
+    return sanitized;
+  }
+
+  private static String sanitize(String string, char[] table) {
+    final int len = string.length();
+    if (len <= MAX_LENGTH && isLegal(string, table)) {
+      return string;
+    }
+    final boolean truncate = len > MAX_LENGTH;
+    final int keep = truncate ? MAX_LENGTH - HASH_LENGTH - 1 : len;
+    final char[] chars = new char[truncate ? MAX_LENGTH : len];
+    for (int i = 0; i < keep; i++) {
+      final char c = string.charAt(i);
+      chars[i] = c < 128 ? table[c] : UNDERSCORE;
+    }
+    if (truncate) {
+      chars[keep] = UNDERSCORE;
+      final String hash = Long.toHexString(hash(string));
+      final int pad = HASH_LENGTH - hash.length();
+      for (int i = 0; i < HASH_LENGTH; i++) {
+        chars[keep + 1 + i] = i < pad ? '0' : hash.charAt(i - pad);
+      }
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Return the 64 bit FNV-1a hash of the string (of its bytes for an ASCII string).
+   */
+  static long hash(String string) {
+    long hash = FNV_OFFSET_BASIS;
+    for (int i = 0; i < string.length(); i++) {
+      final char c = string.charAt(i);
+      hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+      if (c > 0xff) {
+        hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+      }
+    }
+    return hash;
   }
 
-  private static String sanitize(String string, List<Character> reservedChars) {
-    final StringBuilder buffer = new StringBuilder(string.length());
-    final int len = Math.min(string.length(), MAX_LENGTH);
-    for (int i = 0; i < len; i++) {
+  private static boolean isLegal(String string, char[] table) {
+    for (int i = 0; i < string.length(); i++) {
       final char c = string.charAt(i);
-      final boolean legal = ((int) c) < 128 && !reservedChars.contains(c);
-      buffer.append(legal ? c : UNDERSCORE);
+      if (c >= 128 || table[c] != c) {
+        return false;
+      }
     }
-    return buffer.toString();
+    return true;
   }
 
 }
@@ -1,49 +1,380 @@
 package io.ebean.metrics.collectd;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
-import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Sends datagrams to collectd via a transport connecting as required.
+ * <p>
+ * By default this is UDP using a long lived channel where the host name is resolved when
+ * connecting and then again only after the resolve TTL has passed or after a send error.
+ * </p>
+ * <p>
+ * With a spool, datagrams of a batch that fail to send are appended to the spool rather
+ * than lost and are replayed at a limited rate once sending succeeds again.
+ * </p>
+ * <p>
+ * With a circuit breaker, consecutive failed batches (including ICMP port unreachable
+ * reported as {@link java.net.PortUnreachableException} on the connected UDP channel) stop
+ * sending for a backoff period. While the circuit is open batches are spooled, or without
+ * a spool dropped with a {@link CircuitOpenException}, without attempting to send.
+ * </p>
+ */
 class Sender {
 
-  private final String host;
-  private final int port;
+  private static final Logger log = LoggerFactory.getLogger(Sender.class);
+
+  /**
+   * Default number of spooled datagrams replayed per second.
+   */
+  static final int DEFAULT_REPLAY_RATE = 50;
+
+  private static final int MAX_DATAGRAM_SIZE = 65535;
+
+  /**
+   * Default time before the collectd host name is resolved again.
+   */
+  static final long DEFAULT_RESOLVE_TTL_SECS = 300;
+
+  private final Transport transport;
+  private final Spool spool;
+  private final int replayRate;
+  private final CircuitBreaker breaker;
+  private ByteBuffer replayBuffer;
+  private double replayAllowance;
+  private long replayCheckedAt;
+  private long spooledDatagrams;
+  private long replayedDatagrams;
+  private long skippedDatagrams;
+  private long droppedDatagrams;
+  private long sendErrors;
 
-  private InetSocketAddress address;
-  private DatagramChannel channel;
+  /**
+   * Counters for the last batch sent.
+   */
+  private int batchDatagrams;
+  private long batchBytes;
+  private long batchNanos;
+
+  /**
+   * Totals over all batches sent.
+   */
+  private long totalDatagrams;
+  private long totalBytes;
+  private long totalNanos;
 
   Sender(String host, int port) {
-    this.host = host;
-    this.port = port;
+    this(host, port, DEFAULT_RESOLVE_TTL_SECS);
+  }
+
+  Sender(String host, int port, long resolveTtlSecs) {
+    this(new UdpTransport(host, port, resolveTtlSecs));
+  }
+
+  Sender(Transport transport) {
+    this(transport, null, DEFAULT_REPLAY_RATE, null);
+  }
+
+  Sender(Transport transport, Spool spool, int replayRate, CircuitBreaker breaker) {
+    this.transport = transport;
+    this.spool = spool;
+    this.replayRate = replayRate;
+    this.breaker = breaker;
+    this.replayCheckedAt = System.nanoTime();
   }
 
   void connect() throws IOException {
     if (isConnected()) {
       throw new IllegalStateException("Already connected");
     }
-    if (host != null) {
-      address = new InetSocketAddress(host, port);
-    }
-    channel = DatagramChannel.open();
+    transport.connect();
   }
 
   boolean isConnected() {
-    return channel != null && !channel.socket().isClosed();
+    return transport.isConnected();
   }
 
+  /**
+   * Send the datagram connecting (and resolving the host) if required.
+   * <p>
+   * A send error closes the connection such that the next send connects again.
+   * </p>
+   */
   void send(ByteBuffer buffer) throws IOException {
-    channel.send(buffer, address);
+    if (!isConnected()) {
+      connect();
+    }
+    try {
+      transport.send(buffer);
+    } catch (IOException e) {
+      disconnect();
+      throw e;
+    }
   }
 
-  void disconnect() throws IOException {
-    if (channel == null) {
+  /**
+   * Send a batch of datagrams.
+   * <p>
+   * With UDP this is still one write system call per datagram. Java has no batch send
+   * (like sendmmsg) for a datagram channel and a gathering write would join the buffers
+   * into a single datagram. For UDP the batch is bookkeeping only: the datagrams are
+   * encoded into reused buffers, and the counters, circuit breaker and spool are updated
+   * once per batch. Stream transports (TCP and UNIX) buffer the datagrams and write a
+   * batch with few system calls.
+   * </p>
+   * <p>
+   * With a spool the datagrams not written when the send fails are spooled. With a
+   * stream transport a datagram partly written when the connection fails is spooled
+   * as well and so can be received twice.
+   * </p>
+   */
+  void send(ByteBuffer[] datagrams, int count) throws IOException {
+    final long start = System.nanoTime();
+    int written = 0;
+    try {
+      if (breaker != null && !breaker.allow()) {
+        skip(datagrams, count);
+        return;
+      }
+      int i = 0;
+      try {
+        for (; i < count; i++) {
+          send(datagrams[i]);
+        }
+        flush();
+        written = count;
+      } catch (IOException e) {
+        failed(e);
+        // datagrams buffered by a stream transport were lost with the connection
+        written = Math.max(0, i - transport.unwritten());
+        spoolOrThrow(e, datagrams, written, count);
+        return;
+      }
+      if (breaker != null) {
+        breaker.success();
+      }
+      replay();
+    } finally {
+      long bytes = 0;
+      for (int j = 0; j < written; j++) {
+        bytes += datagrams[j].limit();
+      }
+      batchDatagrams = written;
+      batchBytes = bytes;
+      batchNanos = System.nanoTime() - start;
+      totalDatagrams += written;
+      totalBytes += bytes;
+      totalNanos += batchNanos;
+    }
+  }
+
+  private void failed(IOException e) {
+    sendErrors++;
+    if (breaker != null) {
+      breaker.failure(e);
+    }
+  }
+
+  /**
+   * Skip sending the batch as the circuit is open (spooling it if there is a spool).
+   */
+  private void skip(ByteBuffer[] datagrams, int count) throws CircuitOpenException {
+    if (spool == null) {
+      skippedDatagrams += count;
+      throw new CircuitOpenException();
+    }
+    spool(datagrams, 0, count);
+  }
+
+  /**
+   * Append the datagrams from the given index to the spool or rethrow without a spool.
+   */
+  private void spoolOrThrow(IOException e, ByteBuffer[] datagrams, int from, int count) throws IOException {
+    if (spool == null) {
+      throw e;
+    }
+    final int spooled = spool(datagrams, from, count);
+    log.debug("Failed to send to collectd, spooled {} datagrams [{}]", spooled, e.getMessage());
+  }
+
+  /**
+   * Append the datagrams to the spool returning the number spooled.
+   * <p>
+   * Datagrams larger than the spool are dropped.
+   * </p>
+   */
+  private int spool(ByteBuffer[] datagrams, int from, int count) {
+    int spooled = 0;
+    for (int i = from; i < count; i++) {
+      datagrams[i].rewind();
+      if (spool.append(datagrams[i])) {
+        spooled++;
+      }
+    }
+    spooledDatagrams += spooled;
+    final int dropped = count - from - spooled;
+    if (dropped > 0) {
+      droppedDatagrams += dropped;
+      log.warn("Dropped {} datagrams that did not fit in the spool", dropped);
+    }
+    return spooled;
+  }
+
+  /**
+   * Return true if failed datagrams are spooled.
+   */
+  boolean spooling() {
+    return spool != null;
+  }
+
+  /**
+   * Replay spooled datagrams limited to the replay rate.
+   * <p>
+   * This is called after each batch sent successfully and by the reporter every second
+   * such that the spool drains at the replay rate independent of the report period.
+   * Each datagram is flushed before it is removed from the spool such that a failed
+   * write to a stream transport does not lose it.
+   * </p>
+   */
+  void replay() {
+    if (spool == null || spool.size() == 0 || (breaker != null && !breaker.allow())) {
+      return;
+    }
+    final long now = System.nanoTime();
+    replayAllowance = Math.min(replayRate, replayAllowance + replayRate * (now - replayCheckedAt) / (double) TimeUnit.SECONDS.toNanos(1));
+    replayCheckedAt = now;
+    if (replayBuffer == null) {
+      replayBuffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+    }
+    int replayed = 0;
+    try {
+      while (replayAllowance >= 1 && spool.peek(replayBuffer)) {
+        send(replayBuffer);
+        flush();
+        spool.remove();
+        replayed++;
+        replayAllowance--;
+      }
+    } catch (IOException e) {
+      failed(e);
+      log.debug("Failed to replay spooled datagram [{}]", e.getMessage());
+      return;
+    } finally {
+      replayedDatagrams += replayed;
+    }
+    if (replayed > 0 && breaker != null) {
+      breaker.success();
+    }
+  }
+
+  /**
+   * Return the total number of errors sending batches or replaying (including those spooled).
+   */
+  long sendErrors() {
+    return sendErrors;
+  }
+
+  /**
+   * Return the total number of datagrams spooled after failing to send.
+   */
+  long spooledDatagrams() {
+    return spooledDatagrams;
+  }
+
+  /**
+   * Return the total number of datagrams dropped without sending as the circuit was open.
+   */
+  long skippedDatagrams() {
+    return skippedDatagrams;
+  }
+
+  /**
+   * Return the total number of spooled datagrams replayed.
+   */
+  long replayedDatagrams() {
+    return replayedDatagrams;
+  }
+
+  /**
+   * Return the total number of datagrams dropped as they did not fit in the spool or
+   * were evicted from the spool when full.
+   */
+  long droppedDatagrams() {
+    return spool == null ? droppedDatagrams : droppedDatagrams + spool.evicted();
+  }
+
+  private void flush() throws IOException {
+    if (!isConnected()) {
       return;
     }
     try {
-      channel.close();
+      transport.flush();
+    } catch (IOException e) {
+      disconnect();
+      throw e;
+    }
+  }
+
+  /**
+   * Return the number of datagrams sent in the last batch.
+   */
+  int batchDatagrams() {
+    return batchDatagrams;
+  }
+
+  /**
+   * Return the number of bytes sent in the last batch.
+   */
+  long batchBytes() {
+    return batchBytes;
+  }
+
+  /**
+   * Return the time taken in nanoseconds to send the last batch.
+   */
+  long batchNanos() {
+    return batchNanos;
+  }
+
+  /**
+   * Return the total number of datagrams sent in batches.
+   */
+  long totalDatagrams() {
+    return totalDatagrams;
+  }
+
+  /**
+   * Return the total number of bytes sent in batches.
+   */
+  long totalBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * Return the total time in nanoseconds spent sending batches.
+   */
+  long totalNanos() {
+    return totalNanos;
+  }
+
+  void disconnect() throws IOException {
+    transport.disconnect();
+  }
+
+  /**
+   * Disconnect and close the spool (if used).
+   */
+  void close() throws IOException {
+    try {
+      disconnect();
     } finally {
-      channel = null;
+      if (spool != null) {
+        spool.close();
+      }
     }
   }
 
@@ -0,0 +1,196 @@
+package io.ebean.metrics.collectd;
+
+/**
+ * State held by the reporter for a metric series across reports.
+ * <p>
+ * Holds the cumulative count and total as at the last report. When Ebean resets
+ * metrics as they are read the interval values are added to these. When metrics
+ * are read without reset the interval values are the difference from these and
+ * they move forward once the report has been sent.
+ * </p>
+ */
+final class Series {
+
+  private long count;
+  private long total;
+  private long pendingCount;
+  private long pendingTotal;
+  private long otherCount;
+  private long otherTotal;
+  private long pendingOtherCount;
+  private long pendingOtherTotal;
+  private long lastSeen;
+  private long lastSent = Long.MIN_VALUE / 2;
+  private PacketTemplate template;
+  private PacketTemplate percentileTemplate;
+  private Boolean included;
+
+  /**
+   * Record that the metric was included in the given report cycle.
+   */
+  void seen(long cycle) {
+    lastSeen = cycle;
+  }
+
+  /**
+   * Return the report cycle the metric was last included in.
+   */
+  long lastSeen() {
+    return lastSeen;
+  }
+
+  /**
+   * Record that the metric was sent in the given report cycle.
+   */
+  void sent(long cycle) {
+    lastSent = cycle;
+  }
+
+  /**
+   * Return true if an idle metric should be sent given it was last sent in an earlier cycle.
+   */
+  boolean heartbeatDue(long cycle, int heartbeatCycles) {
+    return cycle - lastSent >= heartbeatCycles;
+  }
+
+  /**
+   * Return true if the metric is included by the filter, evaluating the filter only once.
+   */
+  boolean include(MetricFilter filter, MetricKey key) {
+    if (included == null) {
+      included = filter.include(key);
+    }
+    return included;
+  }
+
+  /**
+   * Return the compiled template (null until first written).
+   */
+  PacketTemplate template() {
+    return template;
+  }
+
+  void template(PacketTemplate template) {
+    this.template = template;
+  }
+
+  /**
+   * Return the compiled template of the percentiles of a histogram (null until first written).
+   */
+  PacketTemplate percentileTemplate() {
+    return percentileTemplate;
+  }
+
+  void percentileTemplate(PacketTemplate percentileTemplate) {
+    this.percentileTemplate = percentileTemplate;
+  }
+
+  /**
+   * Release the templates of a series that is no longer reported.
+   * <p>
+   * The cumulative count and total are kept such that a DERIVE series (or one read
+   * without reset) carries on from where it was if the metric is reported again
+   * rather than restarting from 0. The reporter removes such series after a longer
+   * period such that the number held stays bounded.
+   * </p>
+   *
+   * @return true if the series holds no cumulative values and can be removed
+   */
+  boolean evict() {
+    template = null;
+    percentileTemplate = null;
+    return count == 0 && total == 0;
+  }
+
+  /**
+   * Add the interval values of the metric to the cumulative count and total.
+   */
+  void accumulate(Metric metric) {
+    count += metric.count();
+    total += metric.total();
+  }
+
+  /**
+   * Return the interval values given the cumulative values of a metric read without reset.
+   * <p>
+   * If the cumulative values went backwards (the metrics were reset elsewhere) the
+   * cumulative values are taken as the interval values.
+   * </p>
+   */
+  Metric interval(Metric cumulative) {
+    pendingCount = cumulative.count();
+    pendingTotal = cumulative.total();
+    pendingOtherCount = 0;
+    pendingOtherTotal = 0;
+    long intervalCount = cumulative.count() - count;
+    long intervalTotal = cumulative.total() - total;
+    if (intervalCount < 0 || intervalTotal < 0) {
+      intervalCount = cumulative.count();
+      intervalTotal = cumulative.total();
+      // restarting from 0 so the values rolled up into other no longer apply
+      pendingOtherCount = -otherCount;
+      pendingOtherTotal = -otherTotal;
+    }
+    final long mean = intervalCount == 0 ? 0 : intervalTotal / intervalCount;
+    return new Metric(cumulative.key(), intervalCount, intervalTotal, cumulative.max(), mean, cumulative.percentiles());
+  }
+
+  /**
+   * Move the cumulative values forward to those last passed to {@link #interval(Metric)}.
+   */
+  void commit() {
+    count = pendingCount;
+    total = pendingTotal;
+    otherCount += pendingOtherCount;
+    otherTotal += pendingOtherTotal;
+    pendingOtherCount = 0;
+    pendingOtherTotal = 0;
+  }
+
+  /**
+   * Record interval values that were sent rolled up into the other queries rather than as
+   * this series.
+   * <p>
+   * These are taken off the cumulative values sent as DERIVE such that a query moving back
+   * into the top queries does not count them a second time. Without reset they apply once
+   * the report has been sent.
+   * </p>
+   */
+  void rollup(Metric interval, boolean cumulative) {
+    if (cumulative) {
+      pendingOtherCount += interval.count();
+      pendingOtherTotal += interval.total();
+    } else {
+      otherCount += interval.count();
+      otherTotal += interval.total();
+    }
+  }
+
+  /**
+   * Return the count to send as DERIVE given the cumulative count, less that rolled up into other.
+   */
+  long deriveCount(long cumulativeCount) {
+    return cumulativeCount - otherCount - pendingOtherCount;
+  }
+
+  /**
+   * Return the total to send as DERIVE given the cumulative total, less that rolled up into other.
+   */
+  long deriveTotal(long cumulativeTotal) {
+    return cumulativeTotal - otherTotal - pendingOtherTotal;
+  }
+
+  /**
+   * Return the cumulative count.
+   */
+  long count() {
+    return count;
+  }
+
+  /**
+   * Return the cumulative total.
+   */
+  long total() {
+    return total;
+  }
+}
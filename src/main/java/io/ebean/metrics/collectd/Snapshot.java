@@ -0,0 +1,91 @@
+package io.ebean.metrics.collectd;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable metrics collected for one report interval.
+ */
+final class Snapshot {
+
+  private final long epochMillis;
+  private final long periodMillis;
+  private final List<Metric> metrics;
+  private final boolean cumulative;
+
+  Snapshot(long epochSecs, long period, List<Metric> metrics) {
+    this(epochSecs, period, metrics, false);
+  }
+
+  Snapshot(long epochSecs, long period, List<Metric> metrics, boolean cumulative) {
+    this(metrics, epochSecs * 1000, period * 1000, cumulative);
+  }
+
+  private Snapshot(List<Metric> metrics, long epochMillis, long periodMillis, boolean cumulative) {
+    this.epochMillis = epochMillis;
+    this.periodMillis = periodMillis;
+    this.metrics = metrics;
+    this.cumulative = cumulative;
+  }
+
+  /**
+   * Return a snapshot with the timestamp and period in milliseconds.
+   */
+  static Snapshot ofMillis(long epochMillis, long periodMillis, List<Metric> metrics, boolean cumulative) {
+    return new Snapshot(metrics, epochMillis, periodMillis, cumulative);
+  }
+
+  long epochSecs() {
+    return epochMillis / 1000;
+  }
+
+  /**
+   * Return the period in whole seconds.
+   */
+  long period() {
+    return periodMillis / 1000;
+  }
+
+  long epochMillis() {
+    return epochMillis;
+  }
+
+  long periodMillis() {
+    return periodMillis;
+  }
+
+  List<Metric> metrics() {
+    return metrics;
+  }
+
+  /**
+   * Return true if the metrics were read without reset and hold cumulative values.
+   */
+  boolean cumulative() {
+    return cumulative;
+  }
+
+  /**
+   * Return a snapshot combining this with a later snapshot.
+   * <p>
+   * The result has the timestamp of the later snapshot and a period covering both.
+   * Cumulative values are taken from the later snapshot rather than added.
+   * </p>
+   */
+  Snapshot coalesce(Snapshot later) {
+    final Map<MetricKey, Metric> merged = new LinkedHashMap<>();
+    for (Metric metric : metrics) {
+      merged.put(metric.key(), metric);
+    }
+    for (Metric metric : later.metrics) {
+      if (cumulative) {
+        merged.put(metric.key(), metric);
+      } else {
+        merged.merge(metric.key(), metric, Metric::merge);
+      }
+    }
+    return new Snapshot(new ArrayList<>(merged.values()), later.epochMillis, periodMillis + later.periodMillis, cumulative);
+  }
+}
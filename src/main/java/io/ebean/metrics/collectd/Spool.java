@@ -0,0 +1,227 @@
+package io.ebean.metrics.collectd;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fixed size ring of datagrams in a memory mapped file.
+ * <p>
+ * Holds encoded datagrams that could not be sent such that they can be replayed later
+ * as is (with their original timestamps). When full the oldest datagrams are evicted.
+ * The head and tail are kept in the file header so the spool survives a restart.
+ * The file is mapped until {@link #close()} (the channel is closed once mapped).
+ * </p>
+ * <p>
+ * The mapping is only read or written by the synchronized methods that first check the
+ * spool is open, so no access to the unmapped buffer is possible after close (which
+ * would crash the JVM).
+ * </p>
+ * <pre>
+ * [magic][capacity][head][tail][count] [length][datagram] [length][datagram] ...
+ * </pre>
+ */
+final class Spool {
+
+  private static final int MAGIC = 0xC011EC7D;
+  private static final int HEADER_LEN = 32;
+  private static final int LENGTH_PREFIX = 4;
+
+  private static final int MAGIC_POS = 0;
+  private static final int CAPACITY_POS = 4;
+  private static final int HEAD_POS = 8;
+  private static final int TAIL_POS = 16;
+  private static final int COUNT_POS = 24;
+
+  private final MappedByteBuffer file;
+  private final ByteBuffer data;
+  private final int capacity;
+  private final ByteBuffer length = ByteBuffer.allocate(LENGTH_PREFIX);
+
+  /**
+   * Logical positions of the oldest datagram and the end of the newest (only ever increase).
+   */
+  private long head;
+  private long tail;
+  private int count;
+  private long evicted;
+  private boolean closed;
+
+  Spool(Path path, int capacity) throws IOException {
+    if (capacity < 1024) {
+      throw new IllegalArgumentException("spool capacity must be at least 1024 bytes but was " + capacity);
+    }
+    this.capacity = capacity;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      this.file = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LEN + capacity);
+    }
+    file.position(HEADER_LEN);
+    this.data = file.slice();
+    if (file.getInt(MAGIC_POS) == MAGIC && file.getInt(CAPACITY_POS) == capacity) {
+      head = file.getLong(HEAD_POS);
+      tail = file.getLong(TAIL_POS);
+      count = file.getInt(COUNT_POS);
+    } else {
+      file.putInt(MAGIC_POS, MAGIC);
+      file.putInt(CAPACITY_POS, capacity);
+      writeHeader();
+    }
+  }
+
+  /**
+   * Append the datagram evicting the oldest datagrams when required.
+   *
+   * @return false if the datagram is larger than the spool or the spool is closed
+   */
+  synchronized boolean append(ByteBuffer datagram) {
+    final int len = datagram.remaining();
+    final int need = LENGTH_PREFIX + len;
+    if (closed || need > capacity) {
+      return false;
+    }
+    while (capacity - (tail - head) < need) {
+      head += LENGTH_PREFIX + readLength(head);
+      count--;
+      evicted++;
+    }
+    length.clear();
+    length.putInt(0, len);
+    put(tail, length);
+    put(tail + LENGTH_PREFIX, datagram);
+    tail += need;
+    count++;
+    writeHeader();
+    return true;
+  }
+
+  /**
+   * Read the oldest datagram into the buffer without removing it.
+   *
+   * @return false if the spool is empty or closed
+   */
+  synchronized boolean peek(ByteBuffer into) {
+    if (closed || count == 0) {
+      return false;
+    }
+    into.clear();
+    into.limit(readLength(head));
+    get(head + LENGTH_PREFIX, into);
+    into.flip();
+    return true;
+  }
+
+  /**
+   * Remove the oldest datagram (after it has been replayed).
+   */
+  synchronized void remove() {
+    if (closed || count == 0) {
+      return;
+    }
+    head += LENGTH_PREFIX + readLength(head);
+    count--;
+    writeHeader();
+  }
+
+  /**
+   * Return the number of datagrams held.
+   */
+  synchronized int size() {
+    return closed ? 0 : count;
+  }
+
+  /**
+   * Return the number of datagrams evicted as the spool was full.
+   */
+  synchronized long evicted() {
+    return evicted;
+  }
+
+  /**
+   * Write the spool to the file and release the mapping.
+   * <p>
+   * The mapping is otherwise only released when garbage collected which holds the file
+   * open (and on Windows prevents it being deleted).
+   * </p>
+   */
+  synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    file.force();
+    unmap(file);
+  }
+
+  /**
+   * Release the mapping using the JDK cleaner, leaving it to the garbage collector if
+   * that is not accessible.
+   */
+  private static void unmap(MappedByteBuffer buffer) {
+    try {
+      final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      try {
+        // Java 9+
+        final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        invokeCleaner.invoke(theUnsafe.get(null), buffer);
+      } catch (NoSuchMethodException e) {
+        // Java 8
+        final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+        cleanerMethod.setAccessible(true);
+        final Object cleaner = cleanerMethod.invoke(buffer);
+        cleaner.getClass().getMethod("clean").invoke(cleaner);
+      }
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // released when garbage collected
+    }
+  }
+
+  private int readLength(long position) {
+    length.clear();
+    get(position, length);
+    return length.getInt(0);
+  }
+
+  private void writeHeader() {
+    file.putLong(HEAD_POS, head);
+    file.putLong(TAIL_POS, tail);
+    file.putInt(COUNT_POS, count);
+  }
+
+  /**
+   * Copy the source into the ring at the logical position wrapping at the end.
+   */
+  private void put(long position, ByteBuffer source) {
+    final int offset = (int) (position % capacity);
+    final int first = Math.min(source.remaining(), capacity - offset);
+    final int limit = source.limit();
+    source.limit(source.position() + first);
+    data.clear().position(offset);
+    data.put(source);
+    source.limit(limit);
+    if (source.hasRemaining()) {
+      data.clear();
+      data.put(source);
+    }
+  }
+
+  /**
+   * Copy from the ring at the logical position into the target wrapping at the end.
+   */
+  private void get(long position, ByteBuffer target) {
+    final int offset = (int) (position % capacity);
+    final int first = Math.min(target.remaining(), capacity - offset);
+    data.clear().position(offset).limit(offset + first);
+    target.put(data);
+    if (target.hasRemaining()) {
+      data.clear().limit(target.remaining());
+      target.put(data);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package io.ebean.metrics.collectd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Sends datagrams over a stream with each prefixed by its length as a 4 byte int.
+ * <p>
+ * Frames are collected in a write buffer that is written when full and at the end of
+ * each batch such that a batch is written with few system calls.
+ * </p>
+ */
+abstract class StreamTransport implements Transport {
+
+  static final int DEFAULT_WRITE_BUFFER_SIZE = 64 * 1024;
+
+  private static final int LENGTH_PREFIX = 4;
+
+  private final ByteBuffer writeBuffer;
+  private SocketChannel channel;
+  private int unwritten;
+
+  StreamTransport(int writeBufferSize) {
+    this.writeBuffer = ByteBuffer.allocateDirect(writeBufferSize);
+  }
+
+  /**
+   * Open a blocking channel connected to the target.
+   */
+  abstract SocketChannel open() throws IOException;
+
+  @Override
+  public void connect() throws IOException {
+    channel = open();
+    writeBuffer.clear();
+    unwritten = 0;
+  }
+
+  @Override
+  public boolean isConnected() {
+    return channel != null && channel.isConnected();
+  }
+
+  @Override
+  public void send(ByteBuffer datagram) throws IOException {
+    final int length = datagram.remaining();
+    if (writeBuffer.remaining() < LENGTH_PREFIX + length) {
+      flush();
+    }
+    if (writeBuffer.remaining() < LENGTH_PREFIX + length) {
+      // larger than the write buffer
+      final ByteBuffer prefix = ByteBuffer.allocate(LENGTH_PREFIX).putInt(0, length);
+      writeFully(prefix);
+      writeFully(datagram);
+      return;
+    }
+    writeBuffer.putInt(length);
+    writeBuffer.put(datagram);
+    unwritten++;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (writeBuffer.position() == 0) {
+      return;
+    }
+    writeBuffer.flip();
+    try {
+      writeFully(writeBuffer);
+      unwritten = 0;
+    } finally {
+      writeBuffer.clear();
+    }
+  }
+
+  @Override
+  public int unwritten() {
+    return unwritten;
+  }
+
+  private void writeFully(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  @Override
+  public void disconnect() throws IOException {
+    writeBuffer.clear();
+    if (channel == null) {
+      return;
+    }
+    try {
+      channel.close();
+    } finally {
+      channel = null;
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package io.ebean.metrics.collectd;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Length framed datagrams over TCP. The host is resolved on each connect.
+ */
+final class TcpTransport extends StreamTransport {
+
+  private final String host;
+  private final int port;
+
+  TcpTransport(String host, int port, int writeBufferSize) {
+    super(writeBufferSize);
+    this.host = host;
+    this.port = port;
+  }
+
+  @Override
+  SocketChannel open() throws IOException {
+    final SocketChannel channel = SocketChannel.open();
+    try {
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      channel.connect(UdpTransport.resolve(host, port));
+      return channel;
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package io.ebean.metrics.collectd;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Bounded heap of the top query metrics of a report with the rest rolled up into "other".
+ * <p>
+ * The other metric has the combined count and total and the max of the queries it holds,
+ * with one per plugin instance (database) when reporting multiple databases. The values of a
+ * query rolled up are recorded on its series via {@link Series#rollup(Metric, boolean)}.
+ * </p>
+ */
+final class TopQueries {
+
+  static final String OTHER = "other";
+
+  /**
+   * A query metric with its interval values and series.
+   */
+  static final class Entry {
+
+    final Metric metric;
+    final Metric interval;
+    final Series series;
+    final long rank;
+
+    Entry(Metric metric, Metric interval, Series series, long rank) {
+      this.metric = metric;
+      this.interval = interval;
+      this.series = series;
+      this.rank = rank;
+    }
+  }
+
+  private final int size;
+  private final QueryRank rank;
+  private final PriorityQueue<Entry> heap;
+  private final Map<String, Metric> others = new LinkedHashMap<>();
+
+  TopQueries(int size, QueryRank rank) {
+    this.size = size;
+    this.rank = rank;
+    this.heap = new PriorityQueue<>(size + 1, (a, b) -> Long.compare(a.rank, b.rank));
+  }
+
+  /**
+   * Offer the query keeping it if it is in the top queries so far, otherwise adding it to other.
+   */
+  void offer(Metric metric, Metric interval, Series series, boolean cumulative) {
+    final long value = rank.value(interval);
+    if (heap.size() < size) {
+      heap.add(new Entry(metric, interval, series, value));
+    } else if (size > 0 && value > heap.peek().rank) {
+      final Entry lowest = heap.poll();
+      other(lowest.interval, lowest.series, cumulative);
+      heap.add(new Entry(metric, interval, series, value));
+    } else {
+      other(interval, series, cumulative);
+    }
+  }
+
+  private void other(Metric interval, Series series, boolean cumulative) {
+    series.rollup(interval, cumulative);
+    final String instance = interval.key().instance();
+    final Metric other = others.get(instance);
+    if (other == null) {
+      final MetricKey key = new MetricKey(MetricKind.QUERY, null, OTHER, instance);
+      others.put(instance, new Metric(key, interval.count(), interval.total(), interval.max(), interval.mean()));
+    } else {
+      others.put(instance, other.merge(interval));
+    }
+  }
+
+  /**
+   * Remove and return the next top query (null when there are no more).
+   */
+  Entry poll() {
+    return heap.poll();
+  }
+
+  /**
+   * Return the other metrics.
+   */
+  Collection<Metric> others() {
+    return others.values();
+  }
+
+  void clear() {
+    heap.clear();
+    others.clear();
+  }
+}
@@ -0,0 +1,43 @@
+package io.ebean.metrics.collectd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Transport of the encoded datagrams to collectd (or a relay).
+ */
+interface Transport {
+
+  /**
+   * Open the connection.
+   */
+  void connect() throws IOException;
+
+  boolean isConnected();
+
+  /**
+   * Send (or buffer) a datagram. The transport must be connected.
+   */
+  void send(ByteBuffer datagram) throws IOException;
+
+  /**
+   * Write any buffered datagrams. Called at the end of each batch.
+   */
+  void flush() throws IOException;
+
+  /**
+   * Return the number of the last datagrams sent that were buffered and not written.
+   * <p>
+   * After a failed send or flush these were lost with the connection. This is reset
+   * when connecting again and is always 0 for transports that do not buffer.
+   * </p>
+   */
+  default int unwritten() {
+    return 0;
+  }
+
+  /**
+   * Close the connection such that the next send connects again.
+   */
+  void disconnect() throws IOException;
+}
@@ -0,0 +1,22 @@
+package io.ebean.metrics.collectd;
+
+/**
+ * The transport used to send to collectd.
+ */
+public enum TransportType {
+
+  /**
+   * UDP datagrams as read by the collectd network plugin.
+   */
+  UDP,
+
+  /**
+   * A TCP stream with each datagram prefixed by its length (for a relay).
+   */
+  TCP,
+
+  /**
+   * A Unix domain socket stream with each datagram prefixed by its length (requires Java 16+).
+   */
+  UNIX
+}
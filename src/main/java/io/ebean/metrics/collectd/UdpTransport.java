@@ -0,0 +1,108 @@
+package io.ebean.metrics.collectd;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends datagrams using a long lived channel connected to the target address.
+ * <p>
+ * The host name is resolved when connecting and then again only after the resolve TTL
+ * has passed.
+ * </p>
+ */
+final class UdpTransport implements Transport {
+
+  private final String host;
+  private final int port;
+  private final long resolveTtlNanos;
+
+  private InetSocketAddress address;
+  private long resolvedAt;
+  private DatagramChannel channel;
+
+  UdpTransport(String host, int port, long resolveTtlSecs) {
+    this.host = host;
+    this.port = port;
+    this.resolveTtlNanos = TimeUnit.SECONDS.toNanos(resolveTtlSecs);
+  }
+
+  @Override
+  public void connect() throws IOException {
+    open(resolve(host, port));
+  }
+
+  @Override
+  public boolean isConnected() {
+    return channel != null && channel.isConnected();
+  }
+
+  @Override
+  public void send(ByteBuffer datagram) throws IOException {
+    if (System.nanoTime() - resolvedAt > resolveTtlNanos) {
+      reconnectIfMoved();
+    }
+    channel.write(datagram);
+  }
+
+  @Override
+  public void flush() {
+    // nothing buffered
+  }
+
+  @Override
+  public void disconnect() throws IOException {
+    if (channel == null) {
+      return;
+    }
+    try {
+      channel.close();
+    } finally {
+      channel = null;
+    }
+  }
+
+  /**
+   * Resolve the host again and reconnect when the address has changed.
+   */
+  private void reconnectIfMoved() throws IOException {
+    final InetSocketAddress current = resolve(host, port);
+    if (current.equals(address)) {
+      resolvedAt = System.nanoTime();
+    } else {
+      disconnect();
+      open(current);
+    }
+  }
+
+  private void open(InetSocketAddress target) throws IOException {
+    final DatagramChannel newChannel = DatagramChannel.open();
+    try {
+      newChannel.connect(target);
+    } catch (IOException e) {
+      newChannel.close();
+      throw e;
+    }
+    address = target;
+    resolvedAt = System.nanoTime();
+    channel = newChannel;
+  }
+
+  /**
+   * Resolve the host (null for the loopback address).
+   */
+  static InetSocketAddress resolve(String host, int port) throws UnknownHostException {
+    if (host == null) {
+      return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+    final InetSocketAddress resolved = new InetSocketAddress(host, port);
+    if (resolved.isUnresolved()) {
+      throw new UnknownHostException(host);
+    }
+    return resolved;
+  }
+}
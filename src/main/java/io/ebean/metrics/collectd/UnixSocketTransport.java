@@ -0,0 +1,57 @@
+package io.ebean.metrics.collectd;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Length framed datagrams over a Unix domain socket to a local collectd relay.
+ * <p>
+ * Unix domain socket channels need Java 16+ and as this library targets Java 8 they are
+ * opened via reflection.
+ * </p>
+ */
+final class UnixSocketTransport extends StreamTransport {
+
+  private final SocketAddress address;
+  private final Method openChannel;
+
+  UnixSocketTransport(String path, int writeBufferSize) {
+    super(writeBufferSize);
+    try {
+      final Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+      this.address = (SocketAddress) addressClass.getMethod("of", String.class).invoke(null, path);
+      this.openChannel = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+    } catch (ClassNotFoundException | NoSuchMethodException e) {
+      throw new IllegalStateException("Unix domain sockets require Java 16 or later", e);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalArgumentException("Invalid unix socket path " + path, e);
+    }
+  }
+
+  @Override
+  SocketChannel open() throws IOException {
+    final SocketChannel channel;
+    try {
+      channel = (SocketChannel) openChannel.invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Failed to open unix socket channel", e.getCause());
+    } catch (IllegalAccessException e) {
+      throw new IOException("Failed to open unix socket channel", e);
+    }
+    try {
+      channel.connect(address);
+      return channel;
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+}
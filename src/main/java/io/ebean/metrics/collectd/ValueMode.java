@@ -0,0 +1,28 @@
+package io.ebean.metrics.collectd;
+
+/**
+ * How metric values are sent to Collectd.
+ */
+public enum ValueMode {
+
+  /**
+   * Send count, max, mean and total as separate gauge value lists per metric.
+   */
+  GAUGE,
+
+  /**
+   * Send count and total as cumulative DERIVE values such that Collectd computes the rates
+   * and a lost datagram does not lose counts.
+   * <p>
+   * Timed and query metrics are sent as a single value list of type {@code ebean_timed}
+   * which needs a matching entry in the Collectd types.db:
+   * </p>
+   * <pre>
+   * ebean_timed  count:DERIVE:0:U, total:DERIVE:0:U, max:GAUGE:0:U, mean:GAUGE:0:U
+   * </pre>
+   * <p>
+   * Count metrics use the built in {@code derive} type.
+   * </p>
+   */
+  DERIVE
+}
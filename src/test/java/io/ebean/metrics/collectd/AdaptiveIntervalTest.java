@@ -0,0 +1,57 @@
+package io.ebean.metrics.collectd;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveIntervalTest {
+
+  @Test
+  public void steadyActivityKeepsBaseInterval() {
+    AdaptiveInterval adaptive = new AdaptiveInterval(5, 60, 3, 2);
+    for (int i = 0; i < 10; i++) {
+      assertThat(adaptive.update(600_000, 20_000, 60)).isFalse();
+      assertThat(adaptive.intervalSecs()).isEqualTo(60);
+    }
+  }
+
+  @Test
+  public void burstDropsToMinThenRelaxes() {
+    AdaptiveInterval adaptive = new AdaptiveInterval(5, 60, 3, 2);
+    for (int i = 0; i < 5; i++) {
+      adaptive.update(600_000, 20_000, 60);
+    }
+    // 10x the total time per second
+    assertThat(adaptive.update(500_000, 20_000, 5)).isTrue();
+    assertThat(adaptive.intervalSecs()).isEqualTo(5);
+
+    // quiet again, doubling after every 2 quiet reports
+    long[] expected = {5, 10, 10, 20, 20, 40, 40, 60, 60};
+    for (long interval : expected) {
+      adaptive.update(50_000, 20_000, adaptive.intervalSecs());
+      assertThat(adaptive.intervalSecs()).isEqualTo(interval);
+    }
+  }
+
+  @Test
+  public void maxLatencySpikeIsBurst() {
+    AdaptiveInterval adaptive = new AdaptiveInterval(5, 60, 3, 2);
+    for (int i = 0; i < 5; i++) {
+      adaptive.update(600_000, 20_000, 60);
+    }
+    assertThat(adaptive.update(600_000, 90_000, 60)).isTrue();
+    assertThat(adaptive.intervalSecs()).isEqualTo(5);
+  }
+
+  @Test
+  public void smallActivityAfterIdleIsNotBurst() {
+    AdaptiveInterval adaptive = new AdaptiveInterval(5, 60, 3, 2);
+    adaptive.update(0, 0, 60);
+    assertThat(adaptive.update(60_000, 500, 60)).isFalse();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void minAboveBaseInterval() {
+    new AdaptiveInterval(120, 60, 3, 2);
+  }
+}
@@ -0,0 +1,62 @@
+package io.ebean.metrics.collectd;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AlignedScheduleTest {
+
+  private static final long MINUTE = 60_000;
+
+  @Test
+  public void nextOnPeriodBoundary() {
+    AlignedSchedule schedule = new AlignedSchedule(MINUTE, 0, "app-1");
+    assertThat(schedule.next(1_520_961_345_123L)).isEqualTo(1_520_961_360_000L);
+    // an instant on the boundary moves to the next boundary
+    assertThat(schedule.next(1_520_961_360_000L)).isEqualTo(1_520_961_420_000L);
+    assertThat(schedule.boundary(1_520_961_360_000L)).isEqualTo(1_520_961_360_000L);
+  }
+
+  @Test
+  public void nextWithOffset() {
+    AlignedSchedule schedule = new AlignedSchedule(MINUTE, 30_000, "app-1");
+    long offset = schedule.offsetMillis();
+    assertThat(offset).isBetween(0L, 30_000L);
+
+    long next = schedule.next(1_520_961_345_123L);
+    assertThat((next - offset) % MINUTE).isEqualTo(0);
+    assertThat(next).isGreaterThan(1_520_961_345_123L);
+    assertThat(next - 1_520_961_345_123L).isLessThanOrEqualTo(MINUTE);
+    // the timestamp reported is the boundary without the offset
+    assertThat(schedule.boundary(next)).isEqualTo(next - offset);
+    assertThat(schedule.boundary(next + 5)).isEqualTo(next - offset);
+  }
+
+  @Test
+  public void offsetDeterministicPerHost() {
+    assertThat(AlignedSchedule.offset("app-1", 30_000)).isEqualTo(AlignedSchedule.offset("app-1", 30_000));
+    assertThat(AlignedSchedule.offset("app-1", 0)).isEqualTo(0);
+    assertThat(AlignedSchedule.offset(null, 30_000)).isEqualTo(0);
+  }
+
+  @Test
+  public void offsetsSpreadAcrossHosts() {
+    Set<Long> seconds = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      long offset = AlignedSchedule.offset("app-" + i, 59_999);
+      assertThat(offset).isBetween(0L, 59_999L);
+      seconds.add(offset / 1000);
+    }
+    // 100 hosts spread over most of the 60 seconds
+    assertThat(seconds.size()).isGreaterThan(40);
+  }
+
+  @Test
+  public void jitterLimitedToPeriod() {
+    AlignedSchedule schedule = new AlignedSchedule(10_000, 60_000, "app-1");
+    assertThat(schedule.offsetMillis()).isLessThan(10_000L);
+  }
+}
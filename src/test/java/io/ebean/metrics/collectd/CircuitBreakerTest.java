@@ -0,0 +1,81 @@
+package io.ebean.metrics.collectd;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.PortUnreachableException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreakerTest {
+
+  private long now = 1_000_000_000L;
+
+  private final CircuitBreaker breaker = new CircuitBreaker(3, 1_000, 4_000, () -> now);
+
+  private void advanceMillis(long millis) {
+    now += TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  @Test
+  public void opensAfterConsecutiveFailures() {
+    breaker.failure(new PortUnreachableException());
+    breaker.failure(new PortUnreachableException());
+    assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+    assertThat(breaker.allow()).isTrue();
+
+    breaker.failure(new PortUnreachableException());
+    assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+    assertThat(breaker.allow()).isFalse();
+  }
+
+  @Test
+  public void successResetsFailures() {
+    breaker.failure(new IOException());
+    breaker.failure(new IOException());
+    breaker.success();
+    breaker.failure(new IOException());
+    breaker.failure(new IOException());
+    assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+  }
+
+  @Test
+  public void probeAfterBackoff() {
+    open();
+    advanceMillis(999);
+    assertThat(breaker.allow()).isFalse();
+    advanceMillis(1);
+    assertThat(breaker.allow()).isTrue();
+    assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+
+    breaker.success();
+    assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+    assertThat(breaker.backoffMillis()).isEqualTo(1_000);
+  }
+
+  @Test
+  public void failedProbeDoublesBackoffUpToMax() {
+    open();
+    for (long expected : new long[]{2_000, 4_000, 4_000}) {
+      advanceMillis(breaker.backoffMillis());
+      assertThat(breaker.allow()).isTrue();
+      breaker.failure(new IOException());
+      assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+      assertThat(breaker.backoffMillis()).isEqualTo(expected);
+      assertThat(breaker.allow()).isFalse();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void backoffValidated() {
+    new CircuitBreaker(3, 5_000, 1_000);
+  }
+
+  private void open() {
+    for (int i = 0; i < 3; i++) {
+      breaker.failure(new IOException());
+    }
+    assertThat(breaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+  }
+}
@@ -0,0 +1,101 @@
+package io.ebean.metrics.collectd;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LatencyHistogramTest {
+
+  private final MetricKey key = new MetricKey(MetricKind.HISTOGRAM, null, "app.checkout", null);
+
+  private final double[] percentiles = {0.5, 0.9, 0.99, 0.999};
+
+  @Test
+  public void bucketHoldsValue() {
+    long[] values = {0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE};
+    for (long value : values) {
+      int index = LatencyHistogram.index(value);
+      assertThat(index).isLessThan(LatencyHistogram.BUCKETS);
+      assertThat(LatencyHistogram.upperBound(index)).isGreaterThanOrEqualTo(value);
+      if (index > 0) {
+        assertThat(LatencyHistogram.upperBound(index - 1)).isLessThan(value);
+      }
+    }
+  }
+
+  @Test
+  public void percentilesWithinRelativeError() {
+    LatencyHistogram histogram = new LatencyHistogram(4);
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000);
+    }
+
+    Metric metric = histogram.snapshot(key, percentiles, true);
+    assertThat(metric.count()).isEqualTo(1000);
+    assertThat(metric.total()).isEqualTo(500500000L);
+    assertThat(metric.max()).isEqualTo(1000000L);
+    assertThat(metric.mean()).isEqualTo(500500L);
+
+    long[] values = metric.percentiles();
+    assertThat(values[0]).isBetween(500000L, 500000L + 500000L / 16);
+    assertThat(values[1]).isBetween(900000L, 900000L + 900000L / 16);
+    assertThat(values[2]).isBetween(990000L, 1000000L);
+    assertThat(values[3]).isEqualTo(1000000L);
+  }
+
+  @Test
+  public void snapshotResetsBuckets() {
+    LatencyHistogram histogram = new LatencyHistogram(1);
+    histogram.record(10, TimeUnit.MILLISECONDS);
+    assertThat(histogram.snapshot(key, percentiles, true).percentiles()[0]).isEqualTo(10000L);
+
+    Metric empty = histogram.snapshot(key, percentiles, true);
+    assertThat(empty.count()).isEqualTo(0);
+    assertThat(empty.percentiles()[0]).isEqualTo(0);
+  }
+
+  @Test
+  public void snapshotWithoutResetKeepsCumulativeCount() {
+    LatencyHistogram histogram = new LatencyHistogram(1);
+    histogram.record(100);
+    histogram.snapshot(key, percentiles, false);
+    histogram.record(300);
+
+    Metric metric = histogram.snapshot(key, percentiles, false);
+    assertThat(metric.count()).isEqualTo(2);
+    assertThat(metric.total()).isEqualTo(400);
+    // percentiles are for the interval only
+    assertThat(metric.percentiles()[0]).isBetween(300L, 300L + 300L / 16);
+  }
+
+  @Test
+  public void recordFromManyThreads() throws Exception {
+    LatencyHistogram histogram = new LatencyHistogram(4);
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(() -> {
+        for (int i = 0; i < 10000; i++) {
+          histogram.record(i);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Metric metric = histogram.snapshot(key, percentiles, true);
+    assertThat(metric.count()).isEqualTo(80000);
+    assertThat(metric.max()).isEqualTo(9999);
+  }
+
+  @Test
+  public void percentileName() {
+    assertThat(CollectdReporter.percentileName(0.5)).isEqualTo("p50");
+    assertThat(CollectdReporter.percentileName(0.9)).isEqualTo("p90");
+    assertThat(CollectdReporter.percentileName(0.99)).isEqualTo("p99");
+    assertThat(CollectdReporter.percentileName(0.999)).isEqualTo("p999");
+  }
+}
@@ -0,0 +1,116 @@
+package io.ebean.metrics.collectd;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MetricFilterTest {
+
+  private static final List<String> NONE = Collections.emptyList();
+
+  static class Customer {
+  }
+
+  static class Order {
+  }
+
+  @Test
+  public void prefixAndExactGlobs() {
+    NameMatcher matcher = NameMatcher.of("txn.*", "l2.hit", "orm.Customer.*");
+    assertThat(matcher.matches("txn.main")).isTrue();
+    assertThat(matcher.matches("txn.")).isTrue();
+    assertThat(matcher.matches("txn")).isFalse();
+    assertThat(matcher.matches("l2.hit")).isTrue();
+    assertThat(matcher.matches("l2.hits")).isFalse();
+    assertThat(matcher.matches("orm.Customer.findList")).isTrue();
+    assertThat(matcher.matches("orm.Order.findList")).isFalse();
+  }
+
+  @Test
+  public void wildcardGlobs() {
+    NameMatcher matcher = NameMatcher.of("orm.*.findCount", "txn.?");
+    assertThat(matcher.matches("orm.Customer.findCount")).isTrue();
+    assertThat(matcher.matches("orm.Customer.findList")).isFalse();
+    assertThat(matcher.matches("txn.a")).isTrue();
+    assertThat(matcher.matches("txn.ab")).isFalse();
+  }
+
+  @Test
+  public void regexPatterns() {
+    NameMatcher matcher = NameMatcher.of("regex:orm\\.(Customer|Order)\\..*", "txn.*");
+    assertThat(matcher.matches("orm.Order.findList")).isTrue();
+    assertThat(matcher.matches("orm.Product.findList")).isFalse();
+    assertThat(matcher.matches("txn.main")).isTrue();
+  }
+
+  @Test
+  public void globSpecialCharsAreLiteral() {
+    assertThat(NameMatcher.of("a+b*c").matches("a+bxxc")).isTrue();
+    assertThat(NameMatcher.of("a+b*c").matches("aabxxc")).isFalse();
+  }
+
+  @Test
+  public void excludeByName() {
+    MetricFilter filter = new MetricFilter(NONE, Arrays.asList("iud.*", "txn.named.*"),
+      Collections.emptySet(), Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+    assertThat(filter.include(timed("txn.main"))).isTrue();
+    assertThat(filter.include(timed("txn.named.batch"))).isFalse();
+    assertThat(filter.include(timed("iud.Customer.insert"))).isFalse();
+  }
+
+  @Test
+  public void includeByNameAndKind() {
+    Set<MetricKind> kinds = EnumSet.of(MetricKind.TIMED);
+    MetricFilter filter = new MetricFilter(Collections.singletonList("txn.*"), NONE,
+      Collections.emptySet(), Collections.emptySet(), kinds, Collections.emptySet());
+    assertThat(filter.include(timed("txn.main"))).isTrue();
+    assertThat(filter.include(timed("l2.get"))).isFalse();
+    assertThat(filter.include(new MetricKey(MetricKind.COUNT, null, "txn.count", null))).isFalse();
+  }
+
+  @Test
+  public void excludeKind() {
+    MetricFilter filter = new MetricFilter(NONE, NONE, Collections.emptySet(), Collections.emptySet(),
+      Collections.emptySet(), EnumSet.of(MetricKind.COUNT));
+    assertThat(filter.include(timed("txn.main"))).isTrue();
+    assertThat(filter.include(new MetricKey(MetricKind.COUNT, null, "l2.hit", null))).isFalse();
+  }
+
+  @Test
+  public void typesOnlyApplyToQueries() {
+    MetricFilter filter = new MetricFilter(NONE, NONE, Collections.singleton(Customer.class),
+      Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+    assertThat(filter.include(query(Customer.class))).isTrue();
+    assertThat(filter.include(query(Order.class))).isFalse();
+    assertThat(filter.include(timed("txn.main"))).isTrue();
+
+    filter = new MetricFilter(NONE, NONE, Collections.emptySet(), Collections.singleton(Order.class),
+      Collections.emptySet(), Collections.emptySet());
+    assertThat(filter.include(query(Customer.class))).isTrue();
+    assertThat(filter.include(query(Order.class))).isFalse();
+  }
+
+  @Test
+  public void resultMemoizedOnSeries() {
+    MetricFilter filter = new MetricFilter(NONE, Collections.singletonList("txn.*"),
+      Collections.emptySet(), Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+    Series series = new Series();
+    assertThat(series.include(filter, timed("txn.main"))).isFalse();
+    // evaluated once per series
+    assertThat(series.include(filter, timed("other"))).isFalse();
+  }
+
+  private MetricKey timed(String name) {
+    return new MetricKey(MetricKind.TIMED, null, name, null);
+  }
+
+  private MetricKey query(Class<?> type) {
+    return new MetricKey(MetricKind.QUERY, type, "findList", null);
+  }
+}
@@ -0,0 +1,174 @@
+package io.ebean.metrics.collectd;
+
+import io.ebean.Database;
+import io.ebean.meta.BasicMetricVisitor;
+import io.ebean.meta.MetaInfoManager;
+import io.ebean.meta.MetaTimedMetric;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MultipleDatabasesTest {
+
+  private final CollectingTransport transport = new CollectingTransport();
+
+  @Test
+  public void pluginInstanceIsDatabaseName() {
+    CollectdReporter reporter = CollectdReporter.forServers(database("tenantA"), database("tenantB"))
+      .withHost("app")
+      .withSelfMetrics(false)
+      .build(new Sender(transport));
+
+    reporter.report(60);
+    assertThat(valueLists()).containsExactly("txn.main/tenantA", "txn.main/tenantB");
+  }
+
+  @Test
+  public void withServerAddsDatabase() {
+    CollectdReporter reporter = CollectdReporter.forServer(database("tenantA"))
+      .withServer(database("tenantB"))
+      .withServer(database("replica"))
+      .withHost("app")
+      .withSelfMetrics(false)
+      .build(new Sender(transport));
+
+    reporter.report(60);
+    assertThat(valueLists()).containsExactly("txn.main/tenantA", "txn.main/tenantB", "txn.main/replica");
+  }
+
+  @Test
+  public void singleDatabaseWithoutPluginInstance() {
+    CollectdReporter reporter = CollectdReporter.forServer(database("tenantA"))
+      .withHost("app")
+      .withSelfMetrics(false)
+      .build(new Sender(transport));
+
+    reporter.report(60);
+    assertThat(valueLists()).containsExactly("txn.main");
+  }
+
+  @Test
+  public void databaseNoLongerReportingIsEvicted() {
+    FakeDatabase removed = new FakeDatabase("tenantB");
+    CollectdReporter reporter = CollectdReporter.forServers(database("tenantA"), removed.proxy())
+      .withHost("app")
+      .withSelfMetrics(false)
+      .withEvictAfterCycles(1)
+      .build(new Sender(transport));
+
+    reporter.report(60);
+    assertThat(reporter.seriesCount()).isEqualTo(2);
+
+    removed.active = false;
+    transport.clear();
+    reporter.report(60);
+    assertThat(valueLists()).containsExactly("txn.main/tenantA");
+
+    reporter.report(60);
+    assertThat(reporter.seriesCount()).isEqualTo(1);
+  }
+
+  /**
+   * Return the distinct plugin and plugin instance of the value lists sent.
+   */
+  private List<String> valueLists() {
+    Set<String> valueLists = new LinkedHashSet<>();
+    for (int i = 0; i < transport.count(); i++) {
+      ByteBuffer buffer = transport.datagrams()[i].duplicate();
+      String plugin = null;
+      String instance = null;
+      while (buffer.remaining() > 4) {
+        int start = buffer.position();
+        int type = buffer.getShort() & 0xffff;
+        int length = buffer.getShort() & 0xffff;
+        if (type == PacketWriter.TYPE_PLUGIN) {
+          plugin = string(buffer, length);
+          instance = null;
+        } else if (type == PacketWriter.TYPE_PLUGIN_INSTANCE) {
+          instance = string(buffer, length);
+        } else if (type == PacketWriter.TYPE_VALUES) {
+          valueLists.add(instance == null || instance.isEmpty() ? plugin : plugin + "/" + instance);
+        }
+        buffer.position(start + length);
+      }
+    }
+    return new ArrayList<>(valueLists);
+  }
+
+  private static String string(ByteBuffer buffer, int length) {
+    byte[] value = new byte[length - 5];
+    buffer.get(value);
+    return new String(value, StandardCharsets.US_ASCII);
+  }
+
+  private static Database database(String name) {
+    return new FakeDatabase(name).proxy();
+  }
+
+  /**
+   * A database with a single transaction metric.
+   */
+  private static class FakeDatabase {
+
+    private final String name;
+    private boolean active = true;
+
+    FakeDatabase(String name) {
+      this.name = name;
+    }
+
+    Database proxy() {
+      MetaInfoManager metaInfo = proxy(MetaInfoManager.class, "visitBasic", this::visitBasic);
+      return (Database) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Database.class}, (p, method, args) -> {
+        switch (method.getName()) {
+          case "name":
+            return name;
+          case "metaInfo":
+            return metaInfo;
+          default:
+            throw new UnsupportedOperationException(method.getName());
+        }
+      });
+    }
+
+    private BasicMetricVisitor visitBasic() {
+      BasicMetricVisitor visitor = new BasicMetricVisitor();
+      if (active) {
+        visitor.visitTimed((MetaTimedMetric) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{MetaTimedMetric.class}, (p, method, args) -> {
+          switch (method.getName()) {
+            case "name":
+              return "txn.main";
+            case "count":
+              return 10L;
+            case "total":
+              return 500L;
+            case "max":
+            case "mean":
+              return 50L;
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        }));
+      }
+      return visitor;
+    }
+
+    private static <T> T proxy(Class<T> type, String methodName, Supplier<Object> result) {
+      return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (p, method, args) -> {
+        if (method.getName().equals(methodName)) {
+          return result.get();
+        }
+        throw new UnsupportedOperationException(method.getName());
+      }));
+    }
+  }
+}
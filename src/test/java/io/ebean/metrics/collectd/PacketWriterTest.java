@@ -12,6 +12,12 @@ import java.nio.ByteOrder;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -70,7 +76,8 @@ public class PacketWriterTest {
     };
     PacketWriter packetWriter = new PacketWriter(sender, username, password, SecurityLevel.SIGN);
     packetWriter.write(metaData, 42);
-//        assertThat(packetVerified).isTrue();
+    packetWriter.flush();
+    assertThat(packetVerified.get()).isTrue();
   }
 
   @Test
@@ -135,7 +142,376 @@ public class PacketWriterTest {
     };
     PacketWriter packetWriter = new PacketWriter(sender, username, password, SecurityLevel.ENCRYPT);
     packetWriter.write(metaData, 42);
-//        assertThat(packetVerified).isTrue();
+    packetWriter.flush();
+    assertThat(packetVerified.get()).isTrue();
+  }
+
+  @Test
+  public void testPackValueLists() throws Exception {
+    List<Integer> datagramSizes = new ArrayList<>();
+    Sender sender = new Sender("localhost", 4009) {
+      @Override
+      public void send(ByteBuffer buffer) {
+        datagramSizes.add(buffer.remaining());
+      }
+    };
+    PacketWriter packetWriter = new PacketWriter(sender, null, null, SecurityLevel.NONE, 120, 1, false);
+    packetWriter.write(metaData, 1);
+    packetWriter.write(metaData, 2);
+    packetWriter.write(metaData, 3);
+    assertThat(datagramSizes).isEmpty();
+
+    packetWriter.write(metaData, 4);
+    packetWriter.write(metaData, 5);
+    // first value list is 87 bytes and following ones with the same parts 15 bytes
+    assertThat(datagramSizes).containsExactly(117);
+
+    packetWriter.flush();
+    assertThat(datagramSizes).containsExactly(117, 102);
+
+    packetWriter.flush();
+    assertThat(datagramSizes).hasSize(2);
+  }
+
+  @Test
+  public void testSendDatagramsInBatches() throws Exception {
+    List<Integer> batchSizes = new ArrayList<>();
+    Sender sender = new Sender("localhost", 4009) {
+      @Override
+      void send(ByteBuffer[] datagrams, int count) {
+        batchSizes.add(count);
+      }
+    };
+    // each datagram holds one value list and batches hold 2 datagrams
+    PacketWriter packetWriter = new PacketWriter(sender, null, null, SecurityLevel.NONE, 60, 2, false);
+    for (int i = 0; i < 5; i++) {
+      packetWriter.write(new MetaData("host", 1520961345L + i, 100), i);
+    }
+    assertThat(batchSizes).containsExactly(2, 2);
+
+    packetWriter.flush();
+    assertThat(batchSizes).containsExactly(2, 2, 1);
+  }
+
+  @Test
+  public void testDeriveAndGaugeValues() throws Exception {
+    List<ByteBuffer> datagrams = new ArrayList<>();
+    Sender sender = new Sender("localhost", 4009) {
+      @Override
+      public void send(ByteBuffer buffer) {
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.get(copy);
+        datagrams.add(ByteBuffer.wrap(copy));
+      }
+    };
+    PacketWriter packetWriter = new PacketWriter(sender, null, null, SecurityLevel.NONE);
+    DataSourceType[] types = {DataSourceType.DERIVE, DataSourceType.DERIVE, DataSourceType.GAUGE, DataSourceType.GAUGE};
+    packetWriter.write(new MetaData("host", 1520961345L, 60).type("ebean_timed"), types, new double[]{1234567890123L, 42, 7.5, 3});
+    packetWriter.flush();
+
+    ByteBuffer packet = datagrams.get(0);
+    // host 9, time 12, type 16, interval 12
+    packet.position(9 + 12 + 16 + 12);
+    assertThat(packet.getShort()).isEqualTo((short) 6);
+    assertThat(packet.getShort()).isEqualTo((short) (4 + 2 + 4 * 9));
+    assertThat(packet.getShort()).isEqualTo((short) 4);
+    assertThat(packet.get()).isEqualTo((byte) 2);
+    assertThat(packet.get()).isEqualTo((byte) 2);
+    assertThat(packet.get()).isEqualTo((byte) 1);
+    assertThat(packet.get()).isEqualTo((byte) 1);
+    assertThat(packet.getLong()).isEqualTo(1234567890123L);
+    assertThat(packet.getLong()).isEqualTo(42L);
+    packet.order(ByteOrder.LITTLE_ENDIAN);
+    assertThat(packet.getDouble()).isEqualTo(7.5, offset(0.0001));
+    assertThat(packet.getDouble()).isEqualTo(3.0, offset(0.0001));
+    assertThat(packet.remaining()).isEqualTo(0);
+  }
+
+  @Test
+  public void testNoSecurityWithEmptyPassword() throws Exception {
+    List<ByteBuffer> datagrams = new ArrayList<>();
+    PacketWriter packetWriter = new PacketWriter(collectingSender(datagrams), "", "", SecurityLevel.NONE);
+    packetWriter.write(metaData, 42);
+    packetWriter.flush();
+
+    assertThat(datagrams).hasSize(1);
+  }
+
+  @Test
+  public void testSinglePacketFitsIntoDatagram() throws Exception {
+    List<ByteBuffer> datagrams = new ArrayList<>();
+    Sender sender = new Sender("localhost", 4009) {
+      @Override
+      public void send(ByteBuffer buffer) {
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.get(copy);
+        datagrams.add(ByteBuffer.wrap(copy));
+      }
+    };
+    PacketWriter packetWriter = new PacketWriter(sender, null, null, SecurityLevel.NONE);
+    packetWriter.write(metaData, 42);
+    packetWriter.flush();
+
+    assertThat(datagrams).hasSize(1);
+    verifyPacket(datagrams.get(0).array());
+  }
+
+  @Test
+  public void testOnlyChangedPartsWritten() throws Exception {
+    List<ByteBuffer> datagrams = new ArrayList<>();
+    Sender sender = new Sender("localhost", 4009) {
+      @Override
+      public void send(ByteBuffer buffer) {
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.get(copy);
+        datagrams.add(ByteBuffer.wrap(copy));
+      }
+    };
+    PacketWriter packetWriter = new PacketWriter(sender, null, null, SecurityLevel.NONE);
+    packetWriter.write(metaData, 42);
+    packetWriter.write(new MetaData("nw-1.alpine.example.com", 1520961345L, 100).typeInstance("other"), 43);
+    packetWriter.flush();
+
+    assertThat(datagrams).hasSize(1);
+    ByteBuffer packet = datagrams.get(0);
+    // first value list has all parts, second only type instance and values
+    assertThat(packet.remaining()).isEqualTo(87 + 10 + 15);
+    packet.position(87);
+    assertThat(packet.getShort()).isEqualTo((short) 5);
+    assertThat(packet.getShort()).isEqualTo((short) 10);
+    packet.position(packet.position() + 6);
+    assertThat(packet.getShort()).isEqualTo((short) 6);
+  }
+
+  @Test
+  public void testClearedPartWrittenAsEmptyString() throws Exception {
+    List<Integer> datagramSizes = new ArrayList<>();
+    Sender sender = new Sender("localhost", 4009) {
+      @Override
+      public void send(ByteBuffer buffer) {
+        datagramSizes.add(buffer.remaining());
+      }
+    };
+    PacketWriter packetWriter = new PacketWriter(sender, null, null, SecurityLevel.NONE);
+    packetWriter.write(new MetaData("host", 1520961345L, 100).plugin("a").pluginInstance("b").typeInstance("count"), 1);
+    packetWriter.write(new MetaData("host", 1520961345L, 100).plugin("a").typeInstance("count"), 2);
+    packetWriter.flush();
+
+    // second value list clears the plugin instance (5 bytes) and adds values (15 bytes)
+    assertThat(datagramSizes).containsExactly(9 + 12 + 6 + 6 + 10 + 10 + 12 + 15 + 5 + 15);
+  }
+
+  @Test
+  public void testTemplateWritesSameBytes() throws Exception {
+    List<ByteBuffer> expected = new ArrayList<>();
+    PacketWriter packetWriter = new PacketWriter(collectingSender(expected), null, null, SecurityLevel.NONE);
+    MetaData parts = new MetaData("host", 1520961345L, 60).plugin("orm.Customer.findList").pluginInstance("db").type("gauge");
+    packetWriter.write(parts.typeInstance("count"), 10);
+    packetWriter.write(parts.typeInstance("max"), 250);
+    packetWriter.write(parts.typeInstance("mean"), 12.5);
+    packetWriter.flush();
+
+    List<ByteBuffer> actual = new ArrayList<>();
+    DataSourceType[][] types = {{DataSourceType.GAUGE}, {DataSourceType.GAUGE}, {DataSourceType.GAUGE}};
+    PacketTemplate template = PacketTemplate.compile("orm.Customer.findList", "db", "gauge", new String[]{"count", "max", "mean"}, types);
+    assertThat(template.slots()).isEqualTo(3);
+    packetWriter = new PacketWriter(collectingSender(actual), null, null, SecurityLevel.NONE);
+    packetWriter.write(new MetaData("host", 1520961345L, 60), template, new double[]{10, 250, 12.5});
+    packetWriter.flush();
+
+    assertThat(actual).hasSize(1);
+    byte[] expectedBytes = expected.get(0).array();
+    byte[] actualBytes = actual.get(0).array();
+    assertThat(actualBytes.length).isEqualTo(expectedBytes.length);
+    // host 9, time 12, plugin 26, instance 7, type 10 are the same
+    assertThat(Arrays.copyOfRange(actualBytes, 0, 64)).isEqualTo(Arrays.copyOfRange(expectedBytes, 0, 64));
+    // the interval is written ahead of the first type instance then the value lists are the same
+    assertThat(Arrays.copyOfRange(actualBytes, 64, 66)).isEqualTo(new byte[]{0, 7});
+    assertThat(Arrays.copyOfRange(actualBytes, 86, actualBytes.length)).isEqualTo(Arrays.copyOfRange(expectedBytes, 86, expectedBytes.length));
+  }
+
+  @Test
+  public void testTemplateReusedWithNewValues() throws Exception {
+    List<ByteBuffer> datagrams = new ArrayList<>();
+    PacketWriter packetWriter = new PacketWriter(collectingSender(datagrams), null, null, SecurityLevel.NONE);
+    DataSourceType[][] types = {{DataSourceType.DERIVE}};
+    PacketTemplate template = PacketTemplate.compile("count.a", null, "derive", new String[]{null}, types);
+    MetaData metaData = new MetaData("host", 1520961345L, 60);
+    packetWriter.write(metaData, template, new double[]{5});
+    packetWriter.write(metaData, template, new double[]{7});
+    packetWriter.flush();
+
+    ByteBuffer packet = datagrams.get(0);
+    // host 9, time 12, plugin 12, type 11, interval 12 then values 15, second list only values 15
+    assertThat(packet.remaining()).isEqualTo(9 + 12 + 12 + 11 + 12 + 15 + 15);
+    packet.position(packet.limit() - 23);
+    assertThat(packet.getLong()).isEqualTo(5L);
+    packet.position(packet.limit() - 8);
+    assertThat(packet.getLong()).isEqualTo(7L);
+  }
+
+  @Test
+  public void testHighResolutionParts() throws Exception {
+    List<ByteBuffer> datagrams = new ArrayList<>();
+    PacketWriter packetWriter = new PacketWriter(collectingSender(datagrams), null, null, SecurityLevel.NONE);
+    packetWriter.write(MetaData.highResolution("host", 1520961345250L, 250).plugin("a"), 1);
+    packetWriter.flush();
+
+    ByteBuffer packet = datagrams.get(0);
+    Map<Integer, Long> numbers = new TreeMap<>();
+    while (packet.hasRemaining()) {
+      int type = packet.getShort();
+      int length = packet.getShort();
+      if (length == 12 && type != 6) {
+        numbers.put(type, packet.getLong());
+      } else {
+        packet.position(packet.position() + length - 4);
+      }
+    }
+    assertThat(numbers.keySet()).containsExactly(PacketWriter.TYPE_TIME_HR, PacketWriter.TYPE_INTERVAL_HR);
+    assertThat(numbers.get(PacketWriter.TYPE_TIME_HR)).isEqualTo((1520961345L << 30) + (1L << 28));
+    // 250ms is 2^-2 seconds
+    assertThat(numbers.get(PacketWriter.TYPE_INTERVAL_HR)).isEqualTo(1L << 28);
+  }
+
+  @Test
+  public void testToHighResolution() {
+    assertThat(MetaData.toHighResolution(1000)).isEqualTo(1L << 30);
+    assertThat(MetaData.toHighResolution(500)).isEqualTo(1L << 29);
+    assertThat(MetaData.toHighResolution(1)).isEqualTo((1L << 30) / 1000);
+    // epoch milliseconds do not overflow
+    assertThat(MetaData.toHighResolution(4102444800123L) >> 30).isEqualTo(4102444800L);
+  }
+
+  private Sender collectingSender(List<ByteBuffer> datagrams) {
+    return new Sender("localhost", 4009) {
+      @Override
+      public void send(ByteBuffer buffer) {
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.get(copy);
+        datagrams.add(ByteBuffer.wrap(copy));
+      }
+    };
+  }
+
+  @Test
+  public void testSignedWireFormatUnchanged() throws Exception {
+    List<byte[]> plain = writeDatagrams(SecurityLevel.NONE);
+    List<byte[]> signed = writeDatagrams(SecurityLevel.SIGN);
+
+    assertThat(signed).hasSize(3);
+    for (int i = 0; i < signed.size(); i++) {
+      assertThat(signed.get(i)).isEqualTo(legacySign(plain.get(i)));
+    }
+  }
+
+  @Test
+  public void testEncryptedWireFormatUnchanged() throws Exception {
+    List<byte[]> plain = writeDatagrams(SecurityLevel.NONE);
+    List<byte[]> encrypted = writeDatagrams(SecurityLevel.ENCRYPT);
+
+    assertThat(encrypted).hasSize(3);
+    CountingRandom random = new CountingRandom();
+    for (int i = 0; i < encrypted.size(); i++) {
+      byte[] iv = new byte[16];
+      random.nextBytes(iv);
+      assertThat(encrypted.get(i)).isEqualTo(legacyEncrypt(plain.get(i), iv));
+    }
+  }
+
+  @Test
+  public void testDirectBuffersWireFormatUnchanged() throws Exception {
+    for (SecurityLevel securityLevel : SecurityLevel.values()) {
+      List<byte[]> heap = writeDatagrams(securityLevel, false);
+      List<byte[]> direct = writeDatagrams(securityLevel, true);
+      assertThat(direct).hasSize(heap.size());
+      for (int i = 0; i < heap.size(); i++) {
+        assertThat(direct.get(i)).isEqualTo(heap.get(i));
+      }
+    }
+  }
+
+  /**
+   * Write 3 datagrams (using the same crypto primitives for each) returning the bytes sent.
+   */
+  private List<byte[]> writeDatagrams(SecurityLevel securityLevel) throws IOException {
+    return writeDatagrams(securityLevel, false);
+  }
+
+  private List<byte[]> writeDatagrams(SecurityLevel securityLevel, boolean directBuffers) throws IOException {
+    List<byte[]> datagrams = new ArrayList<>();
+    Sender sender = new Sender("localhost", 4009) {
+      @Override
+      public void send(ByteBuffer buffer) {
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.get(copy);
+        datagrams.add(copy);
+      }
+    };
+    PacketWriter packetWriter = new PacketWriter(sender, username, password, securityLevel, 1452, 32, directBuffers, new CountingRandom());
+    for (int i = 0; i < 3; i++) {
+      packetWriter.write(metaData, 42 + i);
+      packetWriter.write(metaData, 0.5 * i);
+      packetWriter.flush();
+    }
+    return datagrams;
+  }
+
+  /**
+   * The signed datagram as built by the original signPacket() implementation.
+   */
+  private byte[] legacySign(byte[] packet) throws Exception {
+    byte[] user = username.getBytes(UTF_8);
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(password.getBytes(UTF_8), "HmacSHA256"));
+    mac.update(user);
+    byte[] signature = mac.doFinal(packet);
+    ByteBuffer buffer = ByteBuffer.allocate(4 + signature.length + user.length + packet.length)
+      .putShort((short) 0x0200)
+      .putShort((short) (user.length + 36))
+      .put(signature)
+      .put(user)
+      .put(packet);
+    return buffer.array();
+  }
+
+  /**
+   * The encrypted datagram as built by the original encryptPacket() implementation.
+   */
+  private byte[] legacyEncrypt(byte[] packet, byte[] iv) throws Exception {
+    byte[] user = username.getBytes(UTF_8);
+    byte[] payload = ByteBuffer.allocate(20 + packet.length)
+      .put(MessageDigest.getInstance("SHA1").digest(packet))
+      .put(packet)
+      .array();
+    Cipher cipher = Cipher.getInstance("AES_256/OFB/NoPadding");
+    cipher.init(Cipher.ENCRYPT_MODE,
+      new SecretKeySpec(MessageDigest.getInstance("SHA-256").digest(password.getBytes(UTF_8)), "AES"),
+      new IvParameterSpec(iv));
+    byte[] output = cipher.doFinal(payload);
+    ByteBuffer buffer = ByteBuffer.allocate(6 + user.length + iv.length + output.length)
+      .putShort((short) 0x0210)
+      .putShort((short) (22 + user.length + output.length))
+      .putShort((short) user.length)
+      .put(user)
+      .put(iv)
+      .put(output);
+    return buffer.array();
+  }
+
+  /**
+   * Deterministic IV source so encrypted output can be compared.
+   */
+  private static class CountingRandom extends SecureRandom {
+
+    private byte next;
+
+    @Override
+    public void nextBytes(byte[] bytes) {
+      for (int i = 0; i < bytes.length; i++) {
+        bytes[i] = next++;
+      }
+    }
   }
 
   private void verifyPacket(byte[] packetArr) {
@@ -0,0 +1,109 @@
+package io.ebean.metrics.collectd;
+
+import io.ebean.Database;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ParallelEncodingTest {
+
+  private static Snapshot snapshot(int size) {
+    List<Metric> metrics = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      MetricKind kind = i % 2 == 0 ? MetricKind.TIMED : MetricKind.COUNT;
+      metrics.add(new Metric(new MetricKey(kind, null, "txn.named" + i, null), i + 1, (i + 1) * 10L, 90, 10));
+    }
+    return new Snapshot(1520961345L, 60, metrics);
+  }
+
+  private static List<byte[]> send(CollectdReporter.Builder builder, Snapshot snapshot) {
+    List<byte[]> datagrams = new ArrayList<>();
+    Sender sender = new Sender("localhost", 25826) {
+      @Override
+      void send(ByteBuffer buffer) {
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.get(copy);
+        datagrams.add(copy);
+      }
+    };
+    CollectdReporter reporter = builder.build(sender);
+    reporter.send(snapshot);
+    assertThat(reporter.stats().metricFailures()).isEqualTo(0);
+    return datagrams;
+  }
+
+  private static CollectdReporter.Builder builder() {
+    return CollectdReporter.forServer((Database) null)
+      .withHost("app")
+      .withSelfMetrics(false);
+  }
+
+  private static int bytes(List<byte[]> datagrams) {
+    int total = 0;
+    for (byte[] datagram : datagrams) {
+      total += datagram.length;
+    }
+    return total;
+  }
+
+  @Test
+  public void chunksStartNewDatagrams() {
+    Snapshot snapshot = snapshot(500);
+    List<byte[]> serial = send(builder(), snapshot);
+    List<byte[]> parallel = send(builder().withParallelEncoding(100), snapshot);
+
+    // each chunk starts a new datagram with the host and time parts again
+    assertThat(parallel.size()).isGreaterThanOrEqualTo(serial.size());
+    assertThat(bytes(parallel)).isGreaterThan(bytes(serial));
+    assertThat(parallel.size()).isLessThanOrEqualTo(serial.size() + 5);
+  }
+
+  @Test
+  public void deterministicPerChunk() {
+    Snapshot snapshot = snapshot(500);
+    List<byte[]> first = send(builder().withParallelEncoding(50), snapshot);
+    List<byte[]> second = send(builder().withParallelEncoding(50, Runnable::run), snapshot);
+
+    assertThat(first.size()).isEqualTo(second.size());
+    for (int i = 0; i < first.size(); i++) {
+      assertThat(Arrays.equals(first.get(i), second.get(i))).isTrue();
+    }
+  }
+
+  @Test
+  public void serialAtOrBelowChunkSize() {
+    Snapshot snapshot = snapshot(100);
+    List<byte[]> serial = send(builder(), snapshot);
+    List<byte[]> parallel = send(builder().withParallelEncoding(100), snapshot);
+
+    assertThat(parallel.size()).isEqualTo(serial.size());
+    for (int i = 0; i < serial.size(); i++) {
+      assertThat(Arrays.equals(serial.get(i), parallel.get(i))).isTrue();
+    }
+  }
+
+  @Test
+  public void valueListsCountedAcrossChunks() {
+    CollectdReporter reporter = builder().withParallelEncoding(10).build(new Sender("localhost", 25826) {
+      @Override
+      void send(ByteBuffer buffer) {
+        buffer.position(buffer.limit());
+      }
+    });
+    reporter.send(snapshot(100));
+
+    // 4 value lists per timed metric and 1 per count metric
+    assertThat(reporter.stats().valueLists()).isEqualTo(50 * 4 + 50);
+    assertThat(reporter.stats().datagrams()).isGreaterThan(0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void chunkSizeValidated() {
+    builder().withParallelEncoding(0);
+  }
+}
@@ -0,0 +1,128 @@
+package io.ebean.metrics.collectd;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReportPipelineTest {
+
+  private final BlockingQueue<Snapshot> sent = new LinkedBlockingQueue<>();
+
+  @Test
+  public void dropNewest() throws InterruptedException {
+    ReportPipeline pipeline = pipeline(QueueFullPolicy.DROP_NEWEST);
+    pipeline.offer(snapshot(1, 10));
+    pipeline.offer(snapshot(2, 20));
+    pipeline.offer(snapshot(3, 30));
+    assertThat(pipeline.size()).isEqualTo(2);
+
+    pipeline.start();
+    assertThat(next().epochSecs()).isEqualTo(1);
+    assertThat(next().epochSecs()).isEqualTo(2);
+    pipeline.shutdown();
+  }
+
+  @Test
+  public void dropOldest() throws InterruptedException {
+    ReportPipeline pipeline = pipeline(QueueFullPolicy.DROP_OLDEST);
+    pipeline.offer(snapshot(1, 10));
+    pipeline.offer(snapshot(2, 20));
+    pipeline.offer(snapshot(3, 30));
+
+    pipeline.start();
+    assertThat(next().epochSecs()).isEqualTo(2);
+    assertThat(next().epochSecs()).isEqualTo(3);
+    pipeline.shutdown();
+  }
+
+  @Test
+  public void coalesce() throws InterruptedException {
+    ReportPipeline pipeline = pipeline(QueueFullPolicy.COALESCE);
+    pipeline.offer(snapshot(1, 10));
+    pipeline.offer(snapshot(2, 20));
+    pipeline.offer(snapshot(3, 30));
+
+    pipeline.start();
+    assertThat(next().epochSecs()).isEqualTo(1);
+    Snapshot coalesced = next();
+    assertThat(coalesced.epochSecs()).isEqualTo(3);
+    assertThat(coalesced.period()).isEqualTo(120);
+    Metric metric = coalesced.metrics().get(0);
+    assertThat(metric.count()).isEqualTo(4);
+    assertThat(metric.total()).isEqualTo(40);
+    assertThat(metric.max()).isEqualTo(30);
+    assertThat(metric.mean()).isEqualTo(10);
+    pipeline.shutdown();
+  }
+
+  @Test
+  public void coalesceKeepsOrder() throws InterruptedException {
+    ReportPipeline pipeline = new ReportPipeline(3, QueueFullPolicy.COALESCE, ReportPipeline.defaultThreadFactory(), sent::add);
+    for (int i = 1; i <= 5; i++) {
+      pipeline.offer(snapshot(i, 10 * i));
+    }
+    assertThat(pipeline.size()).isEqualTo(3);
+
+    pipeline.start();
+    assertThat(next().epochSecs()).isEqualTo(1);
+    assertThat(next().epochSecs()).isEqualTo(2);
+    // 3, 4 and 5 merged into the newest covering a contiguous period
+    Snapshot coalesced = next();
+    assertThat(coalesced.epochSecs()).isEqualTo(5);
+    assertThat(coalesced.period()).isEqualTo(180);
+    assertThat(coalesced.metrics().get(0).count()).isEqualTo(6);
+    assertThat(coalesced.metrics().get(0).max()).isEqualTo(50);
+    pipeline.shutdown();
+  }
+
+  @Test
+  public void shutdownWaitsForSendInProgress() throws InterruptedException {
+    CountDownLatch sending = new CountDownLatch(1);
+    AtomicBoolean interrupted = new AtomicBoolean();
+    ReportPipeline pipeline = new ReportPipeline(2, QueueFullPolicy.DROP_OLDEST, ReportPipeline.defaultThreadFactory(), snapshot -> {
+      sending.countDown();
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        interrupted.set(true);
+      }
+      sent.add(snapshot);
+    });
+    pipeline.start();
+    pipeline.offer(snapshot(1, 10));
+    assertThat(sending.await(1, TimeUnit.SECONDS)).isTrue();
+
+    pipeline.shutdown();
+    assertThat(interrupted.get()).isFalse();
+    assertThat(sent.poll()).isNotNull();
+  }
+
+  @Test
+  public void coalesceSubSecondPeriods() {
+    Snapshot first = Snapshot.ofMillis(1_000, 250, snapshot(1, 10).metrics(), false);
+    Snapshot coalesced = first.coalesce(Snapshot.ofMillis(1_250, 250, snapshot(1, 20).metrics(), false));
+    assertThat(coalesced.epochMillis()).isEqualTo(1_250);
+    assertThat(coalesced.periodMillis()).isEqualTo(500);
+    assertThat(coalesced.epochSecs()).isEqualTo(1);
+  }
+
+  private ReportPipeline pipeline(QueueFullPolicy policy) {
+    return new ReportPipeline(2, policy, ReportPipeline.defaultThreadFactory(), sent::add);
+  }
+
+  private Snapshot next() throws InterruptedException {
+    return sent.poll(1, TimeUnit.SECONDS);
+  }
+
+  private Snapshot snapshot(long epochSecs, long max) {
+    Metric metric = new Metric(new MetricKey(MetricKind.TIMED, null, "txn.main", null), 2, 20, max, 10);
+    return new Snapshot(epochSecs, 60, Collections.singletonList(metric));
+  }
+}
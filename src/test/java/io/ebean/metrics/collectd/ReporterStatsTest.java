@@ -0,0 +1,148 @@
+package io.ebean.metrics.collectd;
+
+import io.ebean.Database;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReporterStatsTest {
+
+  private final MetricKey key = new MetricKey(MetricKind.TIMED, null, "txn.main", null);
+
+  private final List<byte[]> datagrams = new ArrayList<>();
+
+  private final Sender sender = new Sender("localhost", 25826) {
+    @Override
+    void send(ByteBuffer buffer) {
+      byte[] copy = new byte[buffer.remaining()];
+      buffer.get(copy);
+      datagrams.add(copy);
+    }
+  };
+
+  private Snapshot snapshot() {
+    return new Snapshot(1520961345L, 60, Collections.singletonList(new Metric(key, 2, 20, 15, 10)));
+  }
+
+  @Test
+  public void statsCounted() {
+    CollectdReporter reporter = CollectdReporter.forServer((Database) null)
+      .withHost("app")
+      .build(sender);
+    assertThat(reporter.stats().cycles()).isEqualTo(0);
+
+    reporter.send(snapshot());
+    reporter.send(snapshot());
+
+    ReporterStats stats = reporter.stats();
+    assertThat(stats.cycles()).isEqualTo(2);
+    assertThat(stats.metrics()).isEqualTo(2);
+    // 4 value lists per metric and 14 for the stats each cycle
+    assertThat(stats.valueLists()).isEqualTo(36);
+    assertThat(stats.datagrams()).isEqualTo(2);
+    assertThat(stats.bytes()).isEqualTo(datagrams.get(0).length + datagrams.get(1).length);
+    assertThat(stats.metricFailures()).isEqualTo(0);
+    assertThat(stats.ioErrors()).isEqualTo(0);
+  }
+
+  @Test
+  public void statsSentAsPlugin() {
+    CollectdReporter reporter = CollectdReporter.forServer((Database) null)
+      .withHost("app")
+      .build(sender);
+    reporter.send(snapshot());
+
+    assertThat(new String(datagrams.get(0), StandardCharsets.US_ASCII)).contains("ebean_collectd", "value_lists", "io_errors", "spooled", "dropped");
+  }
+
+  @Test
+  public void selfMetricsDisabled() {
+    CollectdReporter reporter = CollectdReporter.forServer((Database) null)
+      .withHost("app")
+      .withSelfMetrics(false)
+      .build(sender);
+    reporter.send(snapshot());
+
+    assertThat(new String(datagrams.get(0), StandardCharsets.US_ASCII)).doesNotContain("ebean_collectd");
+    assertThat(reporter.stats().valueLists()).isEqualTo(4);
+  }
+
+  @Test
+  public void ioErrorsCounted() {
+    Sender failing = new Sender("localhost", 25826) {
+      @Override
+      void send(ByteBuffer buffer) throws java.io.IOException {
+        throw new java.io.IOException("unreachable");
+      }
+    };
+    CollectdReporter reporter = CollectdReporter.forServer((Database) null)
+      .withHost("app")
+      .build(failing);
+    reporter.send(snapshot());
+
+    assertThat(reporter.stats().ioErrors()).isEqualTo(1);
+    assertThat(reporter.stats().datagrams()).isEqualTo(0);
+  }
+
+  @Test
+  public void ioErrorsCountedWhenSpooled() throws IOException {
+    Path file = Files.createTempFile("collectd", ".spool");
+    try {
+      Sender spooling = new Sender(new FailingTransport(), new Spool(file, 4096), Sender.DEFAULT_REPLAY_RATE, null);
+      CollectdReporter reporter = CollectdReporter.forServer((Database) null)
+        .withHost("app")
+        .build(spooling);
+      reporter.send(snapshot());
+
+      ReporterStats stats = reporter.stats();
+      assertThat(stats.ioErrors()).isEqualTo(1);
+      assertThat(stats.spooled()).isEqualTo(1);
+      assertThat(stats.replayed()).isEqualTo(0);
+      assertThat(stats.dropped()).isEqualTo(0);
+      reporter.shutdown();
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /**
+   * Transport that always fails to send.
+   */
+  private static class FailingTransport implements Transport {
+
+    boolean connected;
+
+    @Override
+    public void connect() {
+      connected = true;
+    }
+
+    @Override
+    public boolean isConnected() {
+      return connected;
+    }
+
+    @Override
+    public void send(ByteBuffer datagram) throws IOException {
+      throw new IOException("connection refused");
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void disconnect() {
+      connected = false;
+    }
+  }
+}
@@ -24,7 +24,52 @@ public class SanitizeTest {
   @Test
   public void truncatesNamesExceedingMaxLength() {
     String longName = "01234567890123456789012345678901234567890123456789012345678901234567890123456789";
-    assertThat(Sanitize.name(longName)).isEqualTo(longName.substring(0, 63));
+    String sanitized = Sanitize.name(longName);
+    assertThat(sanitized).hasSize(63);
+    assertThat(sanitized).startsWith(longName.substring(0, 46) + "_");
+    assertThat(sanitized).endsWith(String.format("%016x", Sanitize.hash(longName)));
+  }
+
+  @Test
+  public void hashIsFnv1a64() {
+    assertThat(Sanitize.hash("")).isEqualTo(0xcbf29ce484222325L);
+    assertThat(Sanitize.hash("a")).isEqualTo(0xaf63dc4c8601ec8cL);
+    assertThat(Sanitize.hash("foobar")).isEqualTo(0x85944171f73967e8L);
+  }
+
+  @Test
+  public void cacheEvictsLeastRecentlyUsed() {
+    String name = "lru/name";
+    String sanitized = Sanitize.instanceName(name);
+    for (int i = 0; i < Sanitize.MAX_CACHE_SIZE; i++) {
+      Sanitize.instanceName("churn/" + i);
+      if (i % 1000 == 0) {
+        // kept as recently used
+        assertThat(Sanitize.instanceName(name)).isSameAs(sanitized);
+      }
+    }
+    assertThat(Sanitize.instanceName(name)).isSameAs(sanitized);
+  }
+
+  @Test
+  public void truncatedNamesRemainUnique() {
+    String prefix = "orm.Customer.findList.012345678901234567890123456789012345678901234567890123456789";
+    String first = Sanitize.name(prefix + "a");
+    String second = Sanitize.name(prefix + "b");
+    assertThat(first).hasSize(63);
+    assertThat(second).hasSize(63);
+    assertThat(first).isNotEqualTo(second);
+  }
+
+  @Test
+  public void legalNameReturnedAsIs() {
+    String name = "orm.Customer.findList";
+    assertThat(Sanitize.name(name)).isSameAs(name);
+  }
+
+  @Test
+  public void sanitizedNameCached() {
+    assertThat(Sanitize.instanceName("a/b")).isSameAs(Sanitize.instanceName("a/b"));
   }
 
   @Test
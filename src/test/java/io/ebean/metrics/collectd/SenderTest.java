@@ -0,0 +1,293 @@
+package io.ebean.metrics.collectd;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SenderTest {
+
+  private DatagramChannel receiver;
+  private int port;
+
+  @Before
+  public void setUp() throws IOException {
+    receiver = DatagramChannel.open();
+    receiver.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    port = ((InetSocketAddress) receiver.getLocalAddress()).getPort();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    receiver.close();
+  }
+
+  @Test
+  public void sendKeepsChannelConnected() throws IOException {
+    Sender sender = new Sender(null, port);
+    assertThat(sender.isConnected()).isFalse();
+
+    sender.send(ByteBuffer.wrap("one".getBytes(US_ASCII)));
+    assertThat(sender.isConnected()).isTrue();
+    sender.send(ByteBuffer.wrap("two".getBytes(US_ASCII)));
+    assertThat(sender.isConnected()).isTrue();
+
+    assertThat(receive()).isEqualTo("one");
+    assertThat(receive()).isEqualTo("two");
+    sender.disconnect();
+  }
+
+  @Test
+  public void sendReconnectsAfterDisconnect() throws IOException {
+    Sender sender = new Sender(InetAddress.getLoopbackAddress().getHostAddress(), port, 0);
+    sender.send(ByteBuffer.wrap("one".getBytes(US_ASCII)));
+    sender.disconnect();
+    assertThat(sender.isConnected()).isFalse();
+
+    sender.send(ByteBuffer.wrap("two".getBytes(US_ASCII)));
+    assertThat(receive()).isEqualTo("one");
+    assertThat(receive()).isEqualTo("two");
+    sender.disconnect();
+  }
+
+  @Test
+  public void sendBatch() throws IOException {
+    Sender sender = new Sender(null, port);
+    ByteBuffer[] batch = {
+      ByteBuffer.wrap("one".getBytes(US_ASCII)),
+      ByteBuffer.wrap("three".getBytes(US_ASCII)),
+      ByteBuffer.wrap("unsent".getBytes(US_ASCII))
+    };
+    sender.send(batch, 2);
+
+    assertThat(sender.batchDatagrams()).isEqualTo(2);
+    assertThat(sender.batchBytes()).isEqualTo(8);
+    assertThat(sender.batchNanos()).isGreaterThan(0);
+    assertThat(receive()).isEqualTo("one");
+    assertThat(receive()).isEqualTo("three");
+    sender.disconnect();
+  }
+
+  @Test
+  public void spoolFailedAndReplay() throws Exception {
+    Path file = Files.createTempFile("collectd", ".spool");
+    try {
+      Spool spool = new Spool(file, 1024);
+      FlakyTransport transport = new FlakyTransport();
+      Sender sender = new Sender(transport, spool, 1000, null);
+
+      transport.failAfter = 1;
+      sender.send(batch("one", "two", "three"), 3);
+      assertThat(transport.sent).containsExactly("one");
+      assertThat(spool.size()).isEqualTo(2);
+      assertThat(sender.spooledDatagrams()).isEqualTo(2);
+
+      transport.failAfter = Integer.MAX_VALUE;
+      Thread.sleep(20);
+      sender.send(batch("four"), 1);
+      // replayed after the live batch, in order
+      assertThat(transport.sent).containsExactly("one", "four", "two", "three");
+      assertThat(spool.size()).isEqualTo(0);
+      assertThat(sender.replayedDatagrams()).isEqualTo(2);
+      sender.close();
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void replayKeepsSpooledWhenFlushFails() throws Exception {
+    Path file = Files.createTempFile("collectd", ".spool");
+    try {
+      Spool spool = new Spool(file, 1024);
+      spool.append(ByteBuffer.wrap("one".getBytes(US_ASCII)));
+      FlakyTransport transport = new FlakyTransport();
+      transport.failAfter = Integer.MAX_VALUE;
+      transport.failFlush = true;
+      Sender sender = new Sender(transport, spool, 1000, null);
+
+      Thread.sleep(20);
+      sender.replay();
+      // written to the buffer of a stream transport but not flushed
+      assertThat(spool.size()).isEqualTo(1);
+      assertThat(sender.replayedDatagrams()).isEqualTo(0);
+
+      transport.failFlush = false;
+      Thread.sleep(20);
+      sender.replay();
+      assertThat(spool.size()).isEqualTo(0);
+      assertThat(sender.replayedDatagrams()).isEqualTo(1);
+      sender.close();
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void spoolUnwrittenWhenFlushFails() throws Exception {
+    Path file = Files.createTempFile("collectd", ".spool");
+    try {
+      Spool spool = new Spool(file, 1024);
+      FlakyTransport transport = new FlakyTransport();
+      transport.failAfter = Integer.MAX_VALUE;
+      transport.failFlush = true;
+      // the first datagram was written when the buffer filled
+      transport.unwritten = 2;
+      Sender sender = new Sender(transport, spool, 1000, null);
+
+      sender.send(batch("one", "two", "three"), 3);
+      assertThat(spool.size()).isEqualTo(2);
+      assertThat(sender.spooledDatagrams()).isEqualTo(2);
+      assertThat(sender.batchDatagrams()).isEqualTo(1);
+      assertThat(sender.batchBytes()).isEqualTo(3);
+      sender.close();
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void dropsLargerThanSpool() throws Exception {
+    Path file = Files.createTempFile("collectd", ".spool");
+    try {
+      Spool spool = new Spool(file, 1024);
+      FlakyTransport transport = new FlakyTransport();
+      transport.failAfter = 0;
+      Sender sender = new Sender(transport, spool, 1000, null);
+
+      sender.send(new ByteBuffer[]{ByteBuffer.allocate(2000), ByteBuffer.wrap("one".getBytes(US_ASCII))}, 2);
+      assertThat(spool.size()).isEqualTo(1);
+      assertThat(sender.spooledDatagrams()).isEqualTo(1);
+      assertThat(sender.droppedDatagrams()).isEqualTo(1);
+      sender.close();
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void sendFailsWithoutSpool() throws IOException {
+    FlakyTransport transport = new FlakyTransport();
+    transport.failAfter = 0;
+    new Sender(transport).send(batch("one"), 1);
+  }
+
+  @Test
+  public void circuitOpenSkipsSending() throws IOException {
+    FlakyTransport transport = new FlakyTransport();
+    transport.failAfter = 0;
+    Sender sender = new Sender(transport, null, Sender.DEFAULT_REPLAY_RATE, new CircuitBreaker(2, 60_000, 60_000));
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        sender.send(batch("one"), 1);
+      } catch (IOException e) {
+        // expected, failing transport
+      }
+    }
+    assertThat(transport.attempts).isEqualTo(2);
+
+    try {
+      sender.send(batch("one", "two"), 2);
+    } catch (CircuitOpenException e) {
+      // expected, circuit open
+    }
+    assertThat(transport.attempts).isEqualTo(2);
+    assertThat(sender.skippedDatagrams()).isEqualTo(2);
+  }
+
+  @Test
+  public void circuitOpenSpools() throws Exception {
+    Path file = Files.createTempFile("collectd", ".spool");
+    try {
+      Spool spool = new Spool(file, 1024);
+      FlakyTransport transport = new FlakyTransport();
+      transport.failAfter = 0;
+      Sender sender = new Sender(transport, spool, 1000, new CircuitBreaker(1, 60_000, 60_000));
+
+      sender.send(batch("one"), 1);
+      sender.send(batch("two", "three"), 2);
+      assertThat(transport.attempts).isEqualTo(1);
+      assertThat(spool.size()).isEqualTo(3);
+      sender.close();
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  private static ByteBuffer[] batch(String... values) {
+    ByteBuffer[] batch = new ByteBuffer[values.length];
+    for (int i = 0; i < values.length; i++) {
+      batch[i] = ByteBuffer.wrap(values[i].getBytes(US_ASCII));
+    }
+    return batch;
+  }
+
+  /**
+   * Transport that fails after sending a number of datagrams or on flush.
+   */
+  private static class FlakyTransport implements Transport {
+
+    final List<String> sent = new ArrayList<>();
+    int failAfter;
+    boolean failFlush;
+    int unwritten;
+    int attempts;
+    boolean connected;
+
+    @Override
+    public void connect() {
+      connected = true;
+    }
+
+    @Override
+    public boolean isConnected() {
+      return connected;
+    }
+
+    @Override
+    public void send(ByteBuffer datagram) throws IOException {
+      attempts++;
+      if (sent.size() >= failAfter) {
+        throw new IOException("connection refused");
+      }
+      sent.add(US_ASCII.decode(datagram).toString());
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (failFlush) {
+        throw new IOException("connection reset");
+      }
+    }
+
+    @Override
+    public int unwritten() {
+      return unwritten;
+    }
+
+    @Override
+    public void disconnect() {
+      connected = false;
+    }
+  }
+
+  private String receive() throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(100);
+    receiver.receive(buffer);
+    buffer.flip();
+    return US_ASCII.decode(buffer).toString();
+  }
+}
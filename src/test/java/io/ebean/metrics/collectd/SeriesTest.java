@@ -0,0 +1,137 @@
+package io.ebean.metrics.collectd;
+
+import io.ebean.Database;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SeriesTest {
+
+  private final MetricKey key = new MetricKey(MetricKind.TIMED, null, "txn.main", null);
+
+  @Test
+  public void accumulate() {
+    Series series = new Series();
+    series.accumulate(new Metric(key, 2, 20, 15, 10));
+    series.accumulate(new Metric(key, 3, 60, 30, 20));
+
+    assertThat(series.count()).isEqualTo(5);
+    assertThat(series.total()).isEqualTo(80);
+  }
+
+  @Test
+  public void intervalFromCumulative() {
+    Series series = new Series();
+    Metric first = series.interval(new Metric(key, 2, 20, 15, 10));
+    assertThat(first.count()).isEqualTo(2);
+    assertThat(first.total()).isEqualTo(20);
+    series.commit();
+
+    Metric second = series.interval(new Metric(key, 5, 80, 30, 16));
+    assertThat(second.count()).isEqualTo(3);
+    assertThat(second.total()).isEqualTo(60);
+    assertThat(second.mean()).isEqualTo(20);
+    assertThat(second.max()).isEqualTo(30);
+  }
+
+  @Test
+  public void intervalWithoutCommit_includesUnsentValues() {
+    Series series = new Series();
+    series.interval(new Metric(key, 2, 20, 15, 10));
+    series.commit();
+    // the send of this interval failed so it is not committed
+    series.interval(new Metric(key, 5, 80, 30, 16));
+
+    Metric next = series.interval(new Metric(key, 6, 100, 30, 16));
+    assertThat(next.count()).isEqualTo(4);
+    assertThat(next.total()).isEqualTo(80);
+  }
+
+  @Test
+  public void intervalAfterExternalReset() {
+    Series series = new Series();
+    series.interval(new Metric(key, 10, 100, 15, 10));
+    series.commit();
+
+    Metric interval = series.interval(new Metric(key, 3, 30, 15, 10));
+    assertThat(interval.count()).isEqualTo(3);
+    assertThat(interval.total()).isEqualTo(30);
+  }
+
+  @Test
+  public void rollupTakenOffDerive() {
+    Series series = new Series();
+    series.accumulate(new Metric(key, 5, 100, 50, 20));
+    series.rollup(new Metric(key, 5, 100, 50, 20), false);
+    series.accumulate(new Metric(key, 3, 900, 500, 300));
+
+    assertThat(series.deriveCount(series.count())).isEqualTo(3);
+    assertThat(series.deriveTotal(series.total())).isEqualTo(900);
+  }
+
+  @Test
+  public void rollupWithoutReset_appliesOnCommit() {
+    Series series = new Series();
+    Metric interval = series.interval(new Metric(key, 5, 100, 50, 20));
+    series.rollup(interval, true);
+    // the send failed so the next interval includes the values again
+    interval = series.interval(new Metric(key, 6, 120, 50, 20));
+    series.rollup(interval, true);
+    series.commit();
+
+    assertThat(series.deriveCount(9)).isEqualTo(3);
+    assertThat(series.deriveTotal(900)).isEqualTo(780);
+  }
+
+  @Test
+  public void evictKeepsCumulative() {
+    Series series = new Series();
+    series.template(PacketTemplate.compile("txn.main", null, "derive", new String[]{null}, new DataSourceType[][]{{DataSourceType.DERIVE}}));
+    series.accumulate(new Metric(key, 2, 20, 15, 10));
+
+    assertThat(series.evict()).isFalse();
+    assertThat(series.template()).isNull();
+    assertThat(series.count()).isEqualTo(2);
+    assertThat(series.total()).isEqualTo(20);
+  }
+
+  @Test
+  public void evictWithoutCumulative() {
+    assertThat(new Series().evict()).isTrue();
+  }
+
+  @Test
+  public void reporterRemovesDeriveSeriesAfterRetain() {
+    CollectdReporter reporter = CollectdReporter.forServer((Database) null)
+      .withHost("app")
+      .withValueMode(ValueMode.DERIVE)
+      .withSelfMetrics(false)
+      .withEvictAfterCycles(2)
+      .withRetainCumulativeCycles(5)
+      .build(new Sender(new CollectingTransport()));
+
+    reporter.send(new Snapshot(1520961345L, 60, Collections.singletonList(new Metric(key, 2, 20, 15, 10))));
+    assertThat(reporter.seriesCount()).isEqualTo(1);
+    for (int i = 1; i <= 5; i++) {
+      reporter.send(new Snapshot(1520961345L + i * 60, 60, Collections.emptyList()));
+    }
+    // evicted but holding the cumulative values
+    assertThat(reporter.seriesCount()).isEqualTo(1);
+
+    reporter.send(new Snapshot(1520961345L + 360, 60, Collections.emptyList()));
+    assertThat(reporter.seriesCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void heartbeatDue() {
+    Series series = new Series();
+    assertThat(series.heartbeatDue(1, 10)).isTrue();
+
+    series.sent(1);
+    assertThat(series.heartbeatDue(2, 10)).isFalse();
+    assertThat(series.heartbeatDue(10, 10)).isFalse();
+    assertThat(series.heartbeatDue(11, 10)).isTrue();
+  }
+}
@@ -0,0 +1,84 @@
+package io.ebean.metrics.collectd;
+
+import io.ebean.Database;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ShutdownTest {
+
+  private final TestExecutor executor = new TestExecutor();
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  private CollectdReporter reporter() {
+    return CollectdReporter.forServer((Database) null)
+      .withHost("app")
+      .build(new Sender("localhost", 25826));
+  }
+
+  @Test
+  public void shutdownCancelsFixedDelay() {
+    CollectdReporter reporter = reporter();
+    reporter.scheduleFixedDelay(executor, 60_000);
+    assertThat(executor.scheduledCount()).isEqualTo(1);
+
+    reporter.shutdown();
+    assertThat(executor.scheduledCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void shutdownCancelsReplayAndClosesSpool() throws IOException {
+    Path file = Files.createTempFile("collectd", ".spool");
+    try {
+      Spool spool = new Spool(file, 1024);
+      spool.append(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+      CollectdReporter reporter = CollectdReporter.forServer((Database) null)
+        .withHost("app")
+        .build(new Sender(new CollectingTransport(), spool, Sender.DEFAULT_REPLAY_RATE, null));
+      reporter.scheduleReplay(executor);
+      assertThat(executor.scheduledCount()).isEqualTo(1);
+
+      reporter.shutdown();
+      assertThat(executor.scheduledCount()).isEqualTo(0);
+      assertThat(spool.size()).isEqualTo(0);
+      assertThat(spool.append(ByteBuffer.wrap(new byte[]{1}))).isFalse();
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidBuilderDoesNotOpenSpool() throws IOException {
+    Path file = Files.createTempFile("collectd", ".spool");
+    Files.delete(file);
+    try {
+      // no username or password
+      CollectdReporter.forServer((Database) null)
+        .withSpool(file, 1024)
+        .withSecurityLevel(SecurityLevel.SIGN)
+        .build();
+    } finally {
+      assertThat(Files.exists(file)).isFalse();
+    }
+  }
+
+  @Test
+  public void shutdownCancelsAligned() {
+    CollectdReporter reporter = reporter();
+    reporter.scheduleAligned(executor, 60_000, 0);
+    assertThat(executor.scheduledCount()).isEqualTo(1);
+
+    reporter.shutdown();
+    assertThat(executor.scheduledCount()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,141 @@
+package io.ebean.metrics.collectd;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpoolTest {
+
+  private Path file;
+  private final List<Spool> spools = new ArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    file = Files.createTempFile("collectd", ".spool");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    for (Spool spool : spools) {
+      spool.close();
+    }
+    Files.deleteIfExists(file);
+  }
+
+  private Spool open(int capacity) throws IOException {
+    Spool spool = new Spool(file, capacity);
+    spools.add(spool);
+    return spool;
+  }
+
+  @Test
+  public void appendPeekRemove() throws IOException {
+    Spool spool = open(1024);
+    assertThat(spool.peek(ByteBuffer.allocate(100))).isFalse();
+
+    spool.append(datagram("one"));
+    spool.append(datagram("two"));
+    assertThat(spool.size()).isEqualTo(2);
+
+    assertThat(peek(spool)).isEqualTo("one");
+    // peek does not remove
+    assertThat(peek(spool)).isEqualTo("one");
+    spool.remove();
+    assertThat(peek(spool)).isEqualTo("two");
+    spool.remove();
+    assertThat(spool.size()).isEqualTo(0);
+    assertThat(spool.peek(ByteBuffer.allocate(100))).isFalse();
+  }
+
+  @Test
+  public void wrapsAroundEnd() throws IOException {
+    Spool spool = open(1024);
+    for (int i = 0; i < 1000; i++) {
+      spool.append(datagram("datagram-" + i));
+      assertThat(peek(spool)).isEqualTo("datagram-" + i);
+      spool.remove();
+    }
+    assertThat(spool.evicted()).isEqualTo(0);
+  }
+
+  @Test
+  public void evictsOldestWhenFull() throws IOException {
+    Spool spool = open(1024);
+    // 4 byte length + 96 bytes, 10 fit
+    for (int i = 0; i < 12; i++) {
+      spool.append(datagram(padded(i)));
+    }
+    assertThat(spool.size()).isEqualTo(10);
+    assertThat(spool.evicted()).isEqualTo(2);
+    assertThat(peek(spool)).isEqualTo(padded(2));
+  }
+
+  @Test
+  public void rejectsLargerThanSpool() throws IOException {
+    Spool spool = open(1024);
+    assertThat(spool.append(ByteBuffer.allocate(1021))).isFalse();
+    assertThat(spool.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void recoversAfterReopen() throws IOException {
+    Spool spool = open(1024);
+    for (int i = 0; i < 15; i++) {
+      spool.append(datagram(padded(i)));
+    }
+    spool.remove();
+
+    Spool reopened = open(1024);
+    assertThat(reopened.size()).isEqualTo(9);
+    assertThat(peek(reopened)).isEqualTo(padded(6));
+
+    // a different capacity starts empty
+    spool.close();
+    reopened.close();
+    Files.delete(file);
+    assertThat(open(2048).size()).isEqualTo(0);
+  }
+
+  @Test
+  public void closeReleasesSpool() throws IOException {
+    Spool spool = open(1024);
+    spool.append(datagram("one"));
+    spool.close();
+
+    assertThat(spool.size()).isEqualTo(0);
+    assertThat(spool.append(datagram("two"))).isFalse();
+    assertThat(spool.peek(ByteBuffer.allocate(100))).isFalse();
+    spool.remove();
+    spool.close();
+    // written to the file
+    assertThat(peek(open(1024))).isEqualTo("one");
+  }
+
+  private static String padded(int i) {
+    StringBuilder sb = new StringBuilder("datagram-" + i);
+    while (sb.length() < 96) {
+      sb.append('.');
+    }
+    return sb.toString();
+  }
+
+  private static ByteBuffer datagram(String value) {
+    return ByteBuffer.wrap(value.getBytes(US_ASCII));
+  }
+
+  private static String peek(Spool spool) {
+    ByteBuffer buffer = ByteBuffer.allocate(200);
+    assertThat(spool.peek(buffer)).isTrue();
+    return US_ASCII.decode(buffer).toString();
+  }
+}
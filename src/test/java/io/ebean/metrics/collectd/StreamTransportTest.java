@@ -0,0 +1,140 @@
+package io.ebean.metrics.collectd;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StreamTransportTest {
+
+  private ServerSocketChannel server;
+  private Path socketDir;
+
+  @After
+  public void tearDown() throws IOException {
+    if (server != null) {
+      server.close();
+    }
+    if (socketDir != null) {
+      Files.deleteIfExists(socketDir.resolve("collectd.sock"));
+      Files.deleteIfExists(socketDir);
+    }
+  }
+
+  @Test
+  public void tcpSendsLengthFramedBatch() throws IOException {
+    server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+
+    Sender sender = new Sender(new TcpTransport(null, port, 1024));
+    sender.send(batch("one", "three"), 2);
+
+    try (SocketChannel accepted = server.accept()) {
+      assertThat(receive(accepted, 2)).containsExactly("one", "three");
+      sender.send(batch("four"), 1);
+      assertThat(receive(accepted, 1)).containsExactly("four");
+    }
+    assertThat(sender.batchDatagrams()).isEqualTo(1);
+    sender.disconnect();
+  }
+
+  @Test
+  public void tcpFlushesWhenWriteBufferFull() throws IOException {
+    server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+
+    // write buffer smaller than two frames and than the last datagram
+    Sender sender = new Sender(new TcpTransport(null, port, 12));
+    sender.send(batch("abcd", "efgh", "larger than the buffer"), 3);
+
+    try (SocketChannel accepted = server.accept()) {
+      assertThat(receive(accepted, 3)).containsExactly("abcd", "efgh", "larger than the buffer");
+    }
+    sender.disconnect();
+  }
+
+  @Test
+  public void tcpReconnectsAfterError() throws IOException {
+    Sender sender = new Sender(new TcpTransport(null, 1, 1024));
+    try {
+      sender.send(batch("one"), 1);
+    } catch (IOException e) {
+      // connection refused
+    }
+    assertThat(sender.isConnected()).isFalse();
+  }
+
+  @Test
+  public void unixSocketSendsLengthFramedBatch() throws Exception {
+    Assume.assumeTrue("requires Java 16+", unixSocketsSupported());
+    socketDir = Files.createTempDirectory("collectd");
+    String path = socketDir.resolve("collectd.sock").toString();
+    server = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+      .invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+    server.bind((SocketAddress) Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class).invoke(null, path));
+
+    Sender sender = new Sender(new UnixSocketTransport(path, 1024));
+    sender.send(batch("one", "three"), 2);
+
+    try (SocketChannel accepted = server.accept()) {
+      assertThat(receive(accepted, 2)).containsExactly("one", "three");
+    }
+    sender.disconnect();
+  }
+
+  private static boolean unixSocketsSupported() {
+    try {
+      Class.forName("java.net.UnixDomainSocketAddress");
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  private ByteBuffer[] batch(String... datagrams) {
+    ByteBuffer[] batch = new ByteBuffer[datagrams.length];
+    for (int i = 0; i < datagrams.length; i++) {
+      batch[i] = ByteBuffer.wrap(datagrams[i].getBytes(US_ASCII));
+    }
+    return batch;
+  }
+
+  private List<String> receive(SocketChannel channel, int frames) throws IOException {
+    List<String> received = new ArrayList<>();
+    for (int i = 0; i < frames; i++) {
+      ByteBuffer length = readFully(channel, 4);
+      ByteBuffer datagram = readFully(channel, length.getInt());
+      received.add(US_ASCII.decode(datagram).toString());
+    }
+    return received;
+  }
+
+  private ByteBuffer readFully(SocketChannel channel, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new IOException("closed");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+}
@@ -0,0 +1,78 @@
+package io.ebean.metrics.collectd;
+
+import io.ebean.BackgroundExecutor;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background executor over a scheduled pool that removes cancelled tasks such that
+ * the tasks still scheduled can be counted.
+ */
+final class TestExecutor implements BackgroundExecutor {
+
+  private final ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1);
+
+  TestExecutor() {
+    pool.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Return the number of tasks waiting to run.
+   */
+  int scheduledCount() {
+    return pool.getQueue().size();
+  }
+
+  void shutdown() {
+    pool.shutdownNow();
+  }
+
+  @Override
+  public <T> Future<T> submit(Callable<T> task) {
+    return pool.submit(task);
+  }
+
+  @Override
+  public Future<?> submit(Runnable task) {
+    return pool.submit(task);
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    pool.execute(task);
+  }
+
+  @Override
+  public void executePeriodically(Runnable task, long delay, TimeUnit unit) {
+    pool.scheduleWithFixedDelay(task, delay, delay, unit);
+  }
+
+  @Override
+  public void executePeriodically(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+    pool.scheduleWithFixedDelay(task, initialDelay, delay, unit);
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+    return pool.scheduleWithFixedDelay(task, initialDelay, delay, unit);
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+    return pool.scheduleAtFixedRate(task, initialDelay, period, unit);
+  }
+
+  @Override
+  public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+    return pool.schedule(task, delay, unit);
+  }
+
+  @Override
+  public <V> ScheduledFuture<V> schedule(Callable<V> task, long delay, TimeUnit unit) {
+    return pool.schedule(task, delay, unit);
+  }
+}
@@ -0,0 +1,152 @@
+package io.ebean.metrics.collectd;
+
+import io.ebean.Database;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TopQueriesTest {
+
+  static class Customer {
+  }
+
+  @Test
+  public void keepsTopByTotal() {
+    TopQueries top = new TopQueries(2, QueryRank.TOTAL);
+    for (int i = 1; i <= 5; i++) {
+      Metric metric = query("q" + i, null, i, i * 100, i * 10);
+      top.offer(metric, metric, new Series(), false);
+    }
+
+    List<String> names = new ArrayList<>();
+    TopQueries.Entry entry;
+    while ((entry = top.poll()) != null) {
+      names.add(entry.metric.key().name());
+    }
+    assertThat(names).containsExactly("q4", "q5");
+
+    Metric other = top.others().iterator().next();
+    assertThat(other.key().name()).isEqualTo("other");
+    assertThat(other.count()).isEqualTo(1 + 2 + 3);
+    assertThat(other.total()).isEqualTo(100 + 200 + 300);
+    assertThat(other.max()).isEqualTo(30);
+    assertThat(other.mean()).isEqualTo(100);
+  }
+
+  @Test
+  public void rankByCount() {
+    TopQueries top = new TopQueries(1, QueryRank.COUNT);
+    Metric slow = query("slow", null, 1, 5000, 5000);
+    Metric frequent = query("frequent", null, 100, 1000, 20);
+    top.offer(slow, slow, new Series(), false);
+    top.offer(frequent, frequent, new Series(), false);
+
+    assertThat(top.poll().metric.key().name()).isEqualTo("frequent");
+  }
+
+  @Test
+  public void otherPerInstance() {
+    TopQueries top = new TopQueries(0, QueryRank.TOTAL);
+    Metric a = query("q1", "tenantA", 1, 10, 10);
+    Metric b = query("q1", "tenantB", 2, 20, 10);
+    top.offer(a, a, new Series(), false);
+    top.offer(b, b, new Series(), false);
+
+    assertThat(top.poll()).isNull();
+    Iterator<Metric> others = top.others().iterator();
+    assertThat(others.next().key().instance()).isEqualTo("tenantA");
+    assertThat(others.next().key().instance()).isEqualTo("tenantB");
+  }
+
+  @Test
+  public void reporterSendsTopAndOther() {
+    List<String> datagrams = new ArrayList<>();
+    Sender sender = new Sender("localhost", 25826) {
+      @Override
+      void send(ByteBuffer buffer) {
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.get(copy);
+        datagrams.add(new String(copy, StandardCharsets.US_ASCII));
+      }
+    };
+    CollectdReporter reporter = CollectdReporter.forServer((Database) null)
+      .withHost("app")
+      .withTopQueries(1, QueryRank.TOTAL)
+      .withSelfMetrics(false)
+      .build(sender);
+
+    List<Metric> metrics = new ArrayList<>();
+    metrics.add(query("findList", null, 10, 5000, 900));
+    metrics.add(query("findCount", null, 10, 300, 50));
+    metrics.add(query("findIds", null, 10, 200, 50));
+    reporter.send(new Snapshot(1520961345L, 60, metrics));
+
+    assertThat(datagrams).hasSize(1);
+    assertThat(datagrams.get(0)).contains("db.query.Customer.findList", "db.query.other");
+    assertThat(datagrams.get(0)).doesNotContain("findCount", "findIds");
+  }
+
+  @Test
+  public void deriveNotDoubleCountedWhenBackInTop() {
+    CollectingTransport transport = new CollectingTransport();
+    CollectdReporter reporter = CollectdReporter.forServer((Database) null)
+      .withHost("app")
+      .withValueMode(ValueMode.DERIVE)
+      .withTopQueries(1, QueryRank.TOTAL)
+      .withSelfMetrics(false)
+      .build(new Sender(transport));
+
+    List<Metric> first = new ArrayList<>();
+    first.add(query("findList", null, 10, 5000, 900));
+    first.add(query("findCount", null, 5, 100, 50));
+    reporter.send(new Snapshot(1520961345L, 60, first));
+    assertThat(deriveCount(transport, "db.query.other")).isEqualTo(5);
+
+    transport.clear();
+    List<Metric> second = new ArrayList<>();
+    second.add(query("findList", null, 1, 10, 10));
+    second.add(query("findCount", null, 3, 900, 500));
+    reporter.send(new Snapshot(1520961405L, 60, second));
+
+    // the 5 of the first report were counted in other
+    assertThat(deriveCount(transport, "db.query.Customer.findCount")).isEqualTo(3);
+    assertThat(deriveCount(transport, "db.query.other")).isEqualTo(6);
+  }
+
+  /**
+   * Return the first DERIVE value sent for the plugin.
+   */
+  private static long deriveCount(CollectingTransport transport, String plugin) {
+    for (int i = 0; i < transport.count(); i++) {
+      ByteBuffer buffer = transport.datagrams()[i].duplicate();
+      String current = null;
+      while (buffer.remaining() > 4) {
+        int start = buffer.position();
+        int type = buffer.getShort() & 0xffff;
+        int length = buffer.getShort() & 0xffff;
+        if (type == PacketWriter.TYPE_PLUGIN) {
+          byte[] name = new byte[length - 5];
+          buffer.get(name);
+          current = new String(name, StandardCharsets.US_ASCII);
+        } else if (type == PacketWriter.TYPE_VALUES && plugin.equals(current)) {
+          int values = buffer.getShort();
+          buffer.position(buffer.position() + values);
+          return buffer.getLong();
+        }
+        buffer.position(start + length);
+      }
+    }
+    throw new AssertionError("no values sent for " + plugin);
+  }
+
+  private Metric query(String name, String instance, long count, long total, long max) {
+    MetricKey key = new MetricKey(MetricKind.QUERY, Customer.class, name, instance);
+    return new Metric(key, count, total, max, total / count);
+  }
+}